@@ -39,6 +39,14 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    testOptions {
+        // android.util.Log and friends do nothing in JVM tests.
+        unitTests.isReturnDefaultValues = true
+        // Benchmarks are skipped unless asked for with -Pbenchmark.
+        unitTests.all {
+            it.systemProperty("benchmark", project.hasProperty("benchmark"))
+        }
+    }
 }
 
 dependencies {
@@ -55,4 +63,7 @@ dependencies {
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
     implementation("com.github.pwittchen:reactivenetwork-rx2:0.12.3")
     implementation("commons-io:commons-io:2.11.0")
+    testImplementation("junit:junit:4.13.2")
+    // Same OkHttp line as retrofit 2.9.0.
+    testImplementation("com.squareup.okhttp3:mockwebserver:3.14.9")
 }
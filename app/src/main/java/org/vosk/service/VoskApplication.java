@@ -0,0 +1,59 @@
+package org.vosk.service;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import org.vosk.service.recognition.ModelCache;
+import org.vosk.service.utils.PreferenceConstants;
+import org.vosk.service.utils.Tools;
+
+import java.io.File;
+
+public class VoskApplication extends Application {
+
+    // Share of the device memory loaded models may take, enough for two small models anywhere.
+    private static final int MODEL_MEMORY_SHARE = 4;
+
+    private SharedPreferences sharedPreferences;
+
+    // SharedPreferences only keeps a weak reference to its listeners.
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener = (preferences, key) -> {
+        if (PreferenceConstants.ACTIVE_MODEL.equals(key)) {
+            preloadActiveModel();
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        ((ActivityManager) getSystemService(ACTIVITY_SERVICE)).getMemoryInfo(memoryInfo);
+        ModelCache.getInstance().setMemoryBudget(memoryInfo.totalMem / MODEL_MEMORY_SHARE);
+        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        sharedPreferences.registerOnSharedPreferenceChangeListener(preferenceListener);
+        preloadActiveModel();
+    }
+
+    private void preloadActiveModel() {
+        File activeModel = getActiveModelFile();
+        if (activeModel != null && activeModel.exists()) {
+            ModelCache.getInstance().preload(activeModel);
+        }
+    }
+
+    private File getActiveModelFile() {
+        String activeModel = sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "");
+        if (activeModel.isEmpty()) {
+            return null;
+        }
+        return Tools.getModelFile(this, activeModel);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ModelCache.getInstance().onTrimMemory(level, getActiveModelFile());
+    }
+}
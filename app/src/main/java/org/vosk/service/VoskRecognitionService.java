@@ -18,235 +18,212 @@ package org.vosk.service;
 
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.os.Bundle;
-import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.speech.RecognitionService;
+import android.speech.SpeechRecognizer;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import org.vosk.Model;
-import org.vosk.Recognizer;
-import org.vosk.android.RecognitionListener;
-import org.vosk.android.SpeechService;
+import org.vosk.service.audio.AudioPipeline;
+import org.vosk.service.download.ModelRegistry;
+import org.vosk.service.recognition.GrammarCache;
+import org.vosk.service.recognition.ModelCache;
+import org.vosk.service.recognition.ModelSelector;
+import org.vosk.service.recognition.RecognitionSession;
+import org.vosk.service.recognition.RecognizerPool;
+import org.vosk.service.recognition.SessionController;
+import org.vosk.service.recognition.SessionManager;
 import org.vosk.service.utils.PreferenceConstants;
 import org.vosk.service.utils.Tools;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import io.reactivex.Single;
-import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.CompositeDisposable;
-import io.reactivex.schedulers.Schedulers;
-
-public class VoskRecognitionService extends RecognitionService implements RecognitionListener {
+import java.util.List;
+
+/**
+ * Routes each client to a session of its own. Sessions share the model and, when several run at
+ * once, the microphone capture. What happens to a client starting while another one listens is
+ * up to the session policy preference. The model follows the language the client asks for.
+ */
+public class VoskRecognitionService extends RecognitionService implements RecognitionSession.Host {
     private final static String TAG = VoskRecognitionService.class.getSimpleName();
-    private Recognizer recognizer;
-    private SpeechService speechService;
-    private Model model;
+    private final RecognizerPool recognizerPool = new RecognizerPool();
+    private final SessionManager sessionManager = new SessionManager();
+    // Idle recognizers of an evicted model go with it.
+    private final ModelCache.Listener modelCacheListener = recognizerPool::purge;
+    private AudioPipeline audioPipeline;
 
-    private RecognitionService.Callback mCallback;
-
-    private final CompositeDisposable compositeDisposable = new CompositeDisposable();
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ModelCache.getInstance().addListener(modelCacheListener);
+    }
 
     @Override
     protected void onStartListening(Intent intent, Callback callback) {
         Log.v(TAG, "onStartListening");
-        mCallback = callback;
-        runRecognizerSetup();
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        sessionManager.setPolicy(getSessionPolicy(sharedPreferences));
+        RecognitionSession previous = sessionManager.get(callback);
+        if (previous != null) {
+            // The same client starting again replaces its own session, without telling it.
+            previous.close();
+            onSessionFinished(previous);
+        }
+        if (!sessionManager.admit(callback)) {
+            return;
+        }
+        RecognitionSession session = new RecognitionSession(this, intent, callback);
+        sessionManager.add(session);
+        runRecognizerSetup(session, sharedPreferences);
     }
 
     @Override
     protected void onCancel(Callback callback) {
         Log.v(TAG, "onCancel");
-        results(new Bundle(), true);
+        RecognitionSession session = sessionManager.get(callback);
+        if (session != null) {
+            session.cancel();
+        }
     }
 
     @Override
     protected void onStopListening(Callback callback) {
         Log.v(TAG, "onStopListening");
-        results(new Bundle(), true);
-    }
-
-    private void runRecognizerSetup() {
-        Log.v(TAG, "runRecognizerSetup");
-        if (this.model == null) {
-            SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-
-            if (sharedPreferences.contains(PreferenceConstants.ACTIVE_MODEL)) {
-                final File MODEL_FILE_ROOT_PATH = Tools.getModelFileRootPath(this);
-                final String ACTIVE_MODEL = sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "");
-
-                File outputFile = new File(
-                        MODEL_FILE_ROOT_PATH,
-                        ACTIVE_MODEL + "/" + ACTIVE_MODEL
-                );
-
-                final String outputPath = outputFile.getAbsolutePath();
-                Log.d(TAG, outputPath);
-
-                compositeDisposable.add(Single.fromCallable(() -> new Model(outputPath))
-                        .doOnSuccess(model_ -> this.model = model_)
-                        .delay(1, TimeUnit.MICROSECONDS)
-                        .subscribeOn(Schedulers.io())
-                        .observeOn(AndroidSchedulers.mainThread())
-                        .subscribe(model_ -> startSpeech(), Throwable::printStackTrace));
-            }
-        } else {
-            startSpeech();
+        RecognitionSession session = sessionManager.get(callback);
+        if (session != null) {
+            session.stop();
         }
     }
 
-    private void startSpeech() {
-        Log.v(TAG, "startSpeech");
-        setupRecognizer();
-        this.readyForSpeech(new Bundle());
-        beginningOfSpeech();
-    }
-
+    /**
+     * Only consulted from Android 13 on, earlier versions of the framework turn a second client
+     * away themselves.
+     */
     @Override
-    public void onDestroy() {
-        Log.v(TAG, "onDestroy");
-        super.onDestroy();
+    public int getMaxConcurrentSessionsCount() {
+        SessionManager.Policy policy = getSessionPolicy(PreferenceManager.getDefaultSharedPreferences(this));
+        return policy == SessionManager.Policy.REJECT ? 1 : SessionManager.MAX_FAN_OUT_SESSIONS;
+    }
 
-        if (speechService != null) {
-            speechService.cancel();
-            speechService.shutdown();
-        }
+    private static SessionManager.Policy getSessionPolicy(SharedPreferences sharedPreferences) {
+        return SessionManager.Policy.fromName(sharedPreferences.getString(PreferenceConstants.SESSION_POLICY,
+                SessionManager.Policy.REJECT.name()));
     }
 
-    private void setupRecognizer() {
-        Log.v(TAG, "setupRecognizer");
-        try {
-            if (recognizer == null) {
-                Log.i(TAG, "Creating recognizer");
+    private void runRecognizerSetup(RecognitionSession session, SharedPreferences sharedPreferences) {
+        Log.v(TAG, "runRecognizerSetup");
+        final String ACTIVE_MODEL = sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "");
+        ModelRegistry modelRegistry = ModelRegistry.getInstance(this);
+        List<String> modelNames = getModelNames(session.getController(), modelRegistry, ACTIVE_MODEL,
+                sharedPreferences.getBoolean(PreferenceConstants.LANGUAGE_DETECTION, false));
+        if (modelNames.isEmpty()) {
+            Log.e(TAG, "Model " + ACTIVE_MODEL + " is not installed");
+            session.error(SpeechRecognizer.ERROR_CLIENT);
+            return;
+        }
 
-                recognizer = new Recognizer(model, 16000.0f);
+        List<File> modelFiles = new ArrayList<>(modelNames.size());
+        for (String modelName : modelNames) {
+            File outputFile = Tools.getModelFile(this, modelName);
+            Log.d(TAG, outputFile.getAbsolutePath());
+            modelFiles.add(outputFile);
+        }
+        session.start(modelFiles, index -> modelRegistry.setUsed(modelNames.get(index)));
+    }
+
+    /**
+     * The installed model for the language the client asked for, the active model if there is
+     * none. Without a language, detection listens with one model per installed language.
+     */
+    private static List<String> getModelNames(SessionController session, ModelRegistry modelRegistry,
+                                              String activeModel, boolean detectLanguage) {
+        ModelSelector modelSelector = new ModelSelector(modelRegistry);
+        List<String> modelNames = new ArrayList<>();
+        if (session.getLanguage() != null) {
+            ModelRegistry.InstalledModel model = modelSelector.forLanguage(session.getLanguage(), activeModel);
+            if (model != null) {
+                modelNames.add(model.getItem().getName());
+                return modelNames;
             }
-
-            if (speechService == null) {
-                Log.i(TAG, "Creating speechService");
-
-                speechService = new SpeechService(recognizer, 16000.0f);
-            } else {
-                speechService.cancel();
+            Log.w(TAG, "No model for " + session.getLanguage() + ", using " + activeModel);
+        } else if (detectLanguage || session.isLanguageDetection()) {
+            for (ModelRegistry.InstalledModel model : modelSelector.getDetectionCandidates(session.getDetectionLanguages(), activeModel)) {
+                modelNames.add(model.getItem().getName());
+            }
+            if (!modelNames.isEmpty()) {
+                return modelNames;
             }
-            speechService.startListening(this);
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage());
         }
-    }
-
-    private void readyForSpeech(Bundle bundle) {
-        Log.v(TAG, "readyForSpeech");
-        try {
-            mCallback.readyForSpeech(bundle);
-        } catch (RemoteException e) {
-            // empty
+        if (modelRegistry.isInstalled(activeModel)) {
+            modelNames.add(activeModel);
         }
+        return modelNames;
     }
 
-    private void results(Bundle bundle, boolean isFinal) {
-        Log.v(TAG, "results");
-        try {
-            if (isFinal) {
-                speechService.cancel();
-                mCallback.results(bundle);
-            } else {
-                mCallback.partialResults(bundle);
-            }
-        } catch (RemoteException e) {
-            // empty
+    @Override
+    public AudioPipeline getAudioPipeline(SessionController session) throws IOException {
+        if (audioPipeline != null && audioPipeline.isListening()) {
+            // Joining sessions share the capture as it was configured by the first one.
+            return audioPipeline;
         }
-    }
-
-    private Bundle createResultsBundle(String hypothesis) {
-        Log.v(TAG, "createResultsBundle");
-        ArrayList<String> hypotheses = new ArrayList<>();
-        hypotheses.add(hypothesis);
-        Bundle bundle = new Bundle();
-        bundle.putStringArrayList(android.speech.SpeechRecognizer.RESULTS_RECOGNITION, hypotheses);
-        return bundle;
-    }
+        int sampleRate = (int) session.getSampleRate();
+        if (audioPipeline == null || !audioPipeline.hasConfiguration(sampleRate, session.getFrameMillis(), session.getRingMillis())) {
+            Log.i(TAG, "Creating audioPipeline");
 
-    private void beginningOfSpeech() {
-        Log.v(TAG, "beginningOfSpeech");
-        try {
-            mCallback.beginningOfSpeech();
-        } catch (RemoteException e) {
-            // empty
+            shutdownAudioPipeline();
+            audioPipeline = new AudioPipeline(sampleRate, session.getFrameMillis(), session.getRingMillis());
         }
+        return audioPipeline;
     }
 
-    private void error(int errorCode) {
-        Log.v(TAG, "error");
-        if (speechService != null) {
-            speechService.cancel();
-        }
-        try {
-            mCallback.error(errorCode);
-        } catch (RemoteException e) {
-            // empty
-        }
+    @Override
+    public RecognizerPool getRecognizerPool() {
+        return recognizerPool;
     }
 
-    Type mapType = new TypeToken<Map<String, String>>() {
-    }.getType();
-
     @Override
-    public void onResult(String hypothesis) {
-        Log.v(TAG, "onResult");
-        if (hypothesis != null) {
-            Log.i(TAG, hypothesis);
-            Gson gson = new Gson();
-            Map<String, String> map = gson.fromJson(hypothesis, mapType);
-            String text = map.get("text");
-            results(createResultsBundle(text), true);
+    public void onSessionFinished(RecognitionSession session) {
+        sessionManager.remove(session);
+        if (sessionManager.isEmpty() && audioPipeline != null) {
+            // Keeps the recorder for the next session, only capture stops.
+            audioPipeline.cancel();
+        }
+        if (sessionManager.isEmpty()) {
+            Log.d(TAG, getCacheStats());
         }
     }
 
-    @Override
-    public void onFinalResult(String hypothesis) {
-        Log.v(TAG, "onFinalResult");
-        if (hypothesis != null) {
-            Log.i(TAG, hypothesis);
-            Gson gson = new Gson();
-            Map<String, String> map = gson.fromJson(hypothesis, mapType);
-            String text = map.get("text");
-            results(createResultsBundle(text), true);
-        }
+    private String getCacheStats() {
+        GrammarCache grammarCache = GrammarCache.getInstance();
+        return "Recognizer pool hits " + recognizerPool.getHitCount() + ", misses " + recognizerPool.getMissCount()
+                + "; grammar cache hits " + grammarCache.getHitCount() + ", misses " + grammarCache.getMissCount();
     }
 
+    // adb shell dumpsys activity service org.vosk.service/.VoskRecognitionService
     @Override
-    public void onPartialResult(String hypothesis) {
-        Log.v(TAG, "onPartialResult");
-        if (hypothesis != null) {
-            Log.i(TAG, hypothesis);
-            Gson gson = new Gson();
-            Map<String, String> map = gson.fromJson(hypothesis, mapType);
-            String text = map.get("partial");
-            results(createResultsBundle(text), false);
-        }
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println(getCacheStats());
     }
 
     @Override
-    public void onError(Exception e) {
-        Log.v(TAG, "onError");
-        Log.e(TAG, e.getMessage());
-        error(android.speech.SpeechRecognizer.ERROR_CLIENT);
+    public void onDestroy() {
+        Log.v(TAG, "onDestroy");
+        super.onDestroy();
+
+        ModelCache.getInstance().removeListener(modelCacheListener);
+        Log.i(TAG, getCacheStats());
+        sessionManager.closeAll();
+        shutdownAudioPipeline();
+        recognizerPool.close();
     }
 
-    @Override
-    public void onTimeout() {
-        Log.v(TAG, "onTimeout");
-        speechService.cancel();
-        speechService.startListening(this);
+    private void shutdownAudioPipeline() {
+        if (audioPipeline != null) {
+            audioPipeline.shutdown();
+            audioPipeline = null;
+        }
     }
 }
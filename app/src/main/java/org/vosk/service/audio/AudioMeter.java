@@ -0,0 +1,80 @@
+package org.vosk.service.audio;
+
+import android.os.SystemClock;
+
+/**
+ * Computes RMS and peak levels of PCM frames on the capture thread without allocating. The
+ * latest values are published through volatile fields, so readers on other threads never block
+ * the audio path.
+ */
+public class AudioMeter {
+
+    public static final long DEFAULT_INTERVAL_MS = 50;
+
+    // RecognitionListener.onRmsChanged has no defined unit, clients built against the platform
+    // recognizer expect roughly -2..10, so dBFS in [-60, 0] is mapped onto that range.
+    private static final float MIN_DBFS = -60f;
+    private static final float MIN_RMS_DB = -2f;
+    private static final float MAX_RMS_DB = 10f;
+
+    private final long intervalMs;
+    private long lastPublishTime;
+
+    private volatile float rmsDb = MIN_RMS_DB;
+    private volatile float peak;
+
+    public AudioMeter() {
+        this(DEFAULT_INTERVAL_MS);
+    }
+
+    public AudioMeter(long intervalMs) {
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Measures a frame and returns true when the level is due to be published.
+     */
+    public boolean process(short[] buffer, int length) {
+        if (length <= 0) {
+            return false;
+        }
+        long sumSquares = 0;
+        int max = 0;
+        for (int i = 0; i < length; i++) {
+            int sample = buffer[i];
+            sumSquares += sample * sample;
+            int abs = sample < 0 ? -sample : sample;
+            if (abs > max) {
+                max = abs;
+            }
+        }
+        double rms = Math.sqrt((double) sumSquares / length) / 32768.0;
+        float dbfs = rms > 0 ? (float) (20 * Math.log10(rms)) : MIN_DBFS;
+        if (dbfs < MIN_DBFS) {
+            dbfs = MIN_DBFS;
+        }
+        rmsDb = MIN_RMS_DB + (MAX_RMS_DB - MIN_RMS_DB) * (dbfs - MIN_DBFS) / -MIN_DBFS;
+        peak = max / 32768f;
+
+        long now = SystemClock.uptimeMillis();
+        if (now - lastPublishTime >= intervalMs) {
+            lastPublishTime = now;
+            return true;
+        }
+        return false;
+    }
+
+    public float getRmsDb() {
+        return rmsDb;
+    }
+
+    public float getPeak() {
+        return peak;
+    }
+
+    public void reset() {
+        rmsDb = MIN_RMS_DB;
+        peak = 0f;
+        lastPublishTime = 0;
+    }
+}
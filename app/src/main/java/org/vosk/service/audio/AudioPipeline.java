@@ -0,0 +1,493 @@
+package org.vosk.service.audio;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import org.vosk.Recognizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Microphone capture feeding a {@link Recognizer}, replacing org.vosk.android.SpeechService.
+ * A high priority reader thread drains the {@link AudioRecord} into an {@link AudioRingBuffer}
+ * and a separate decoder thread feeds the recognizer from it, so decoding hiccups are absorbed
+ * by the ring instead of dropping audio. Several recognizers can share one capture, each frame
+ * is then fed to all of them.
+ */
+public class AudioPipeline {
+    private final static String TAG = AudioPipeline.class.getSimpleName();
+
+    public static final int DEFAULT_FRAME_MILLIS = 100;
+    public static final int DEFAULT_RING_MILLIS = 3000;
+
+    public interface Listener {
+        void onPartialResult(String hypothesis);
+
+        void onResult(String hypothesis);
+
+        void onFinalResult(String hypothesis);
+
+        void onError(Exception exception);
+
+        void onRmsChanged(float rmsDb);
+
+        void onBufferReceived(byte[] buffer);
+
+        void onBeginningOfSpeech();
+
+        void onEndOfSpeech();
+
+        /**
+         * Final result of the audio decoded up to a checkpoint, the recognizer keeps going.
+         */
+        void onCheckpoint(String hypothesis);
+    }
+
+    private final int sampleRate;
+    private final int frameMillis;
+    private final int ringMillis;
+    private final AudioRecord recorder;
+    private final AudioRingBuffer ringBuffer;
+    private final AudioMeter meter = new AudioMeter();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Read by the reader without locking. Removal takes the lock the decoder holds while a frame
+    // goes through all taps, so a removed tap's recognizer is not in use anymore.
+    private final List<Tap> taps = new CopyOnWriteArrayList<>();
+    private final Object tapLock = new Object();
+
+    private ReaderThread readerThread;
+    private DecoderThread decoderThread;
+
+    private final Runnable publishLevel = () -> {
+        for (Listener listener : getListeners()) {
+            listener.onRmsChanged(meter.getRmsDb());
+        }
+    };
+
+    @SuppressLint("MissingPermission")
+    public AudioPipeline(float sampleRate, int frameMillis, int ringMillis) throws IOException {
+        this.sampleRate = (int) sampleRate;
+        this.frameMillis = frameMillis;
+        this.ringMillis = ringMillis;
+
+        int frameSize = this.sampleRate * frameMillis / 1000;
+        int minBufferSize = AudioRecord.getMinBufferSize(this.sampleRate,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        if (minBufferSize < 0 || frameSize <= 0) {
+            throw new IOException("Unsupported sample rate " + this.sampleRate);
+        }
+        try {
+            this.recorder = new AudioRecord(MediaRecorder.AudioSource.VOICE_RECOGNITION, this.sampleRate,
+                    AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT,
+                    Math.max(minBufferSize, frameSize * 2 * 2));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported sample rate " + this.sampleRate, e);
+        }
+
+        if (recorder.getState() == AudioRecord.STATE_UNINITIALIZED) {
+            recorder.release();
+            throw new IOException("Failed to initialize recorder. Microphone might be already in use.");
+        }
+        this.ringBuffer = new AudioRingBuffer(Math.max(2, ringMillis / frameMillis), frameSize);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public boolean hasConfiguration(int sampleRate, int frameMillis, int ringMillis) {
+        return this.sampleRate == sampleRate && this.frameMillis == frameMillis && this.ringMillis == ringMillis;
+    }
+
+    public int getOverruns() {
+        return ringBuffer.getOverruns();
+    }
+
+    public int getUnderruns() {
+        return ringBuffer.getUnderruns();
+    }
+
+    public boolean isListening() {
+        return readerThread != null;
+    }
+
+    /**
+     * Starts capturing into the given recognizer. When a voice activity detector is given,
+     * leading silence is skipped and the utterance is finalized once the speaker goes quiet.
+     * A continuous capture instead delivers the utterance as a result and keeps going, with the
+     * same recognizer, until it is stopped. If the pipeline is already capturing, the recognizer
+     * joins it and gets the same audio from now on.
+     */
+    public boolean startListening(Recognizer recognizer, Listener listener, boolean forwardBuffers,
+                                  boolean partialResults, VoiceActivityDetector vad, boolean continuous) {
+        if (vad != null) {
+            vad.reset();
+        }
+        Tap tap = new Tap(recognizer, listener, forwardBuffers, partialResults, vad, continuous);
+        synchronized (tapLock) {
+            if (findTap(listener) != null) {
+                return false;
+            }
+            taps.add(tap);
+        }
+        if (readerThread == null) {
+            meter.reset();
+            ringBuffer.clear();
+            decoderThread = new DecoderThread();
+            readerThread = new ReaderThread();
+            decoderThread.start();
+            readerThread.start();
+        }
+        return true;
+    }
+
+    /**
+     * Stops capture, decodes what is still buffered and delivers the final result.
+     */
+    public boolean stop() {
+        return stopThreads(true);
+    }
+
+    /**
+     * Stops capture, dropping whatever was not yet recognized.
+     */
+    public boolean cancel() {
+        return stopThreads(false);
+    }
+
+    /**
+     * Delivers the final result of one listener once the audio captured so far, including what
+     * still waits in the ring, is decoded. The others keep listening.
+     */
+    public boolean stop(Listener listener) {
+        Tap tap = findTap(listener);
+        if (tap != null) {
+            tap.stopPosition = ringBuffer.getPublished();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Asks for the final result of one listener once its recognizer has decoded the given
+     * length of audio, skipped silence not counted.
+     */
+    public boolean setCheckpoint(Listener listener, long millis) {
+        Tap tap = findTap(listener);
+        if (tap != null) {
+            tap.checkpointSamples = millis * sampleRate / 1000;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Changes the recognizer settings of one listener between two frames, never while the
+     * recognizer decodes.
+     */
+    public boolean configure(Listener listener, Consumer<Recognizer> configuration) {
+        synchronized (tapLock) {
+            Tap tap = findTap(listener);
+            if (tap != null) {
+                configuration.accept(tap.recognizer);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Detaches one listener. Its recognizer is not touched by the pipeline anymore once this
+     * returns, the others keep listening.
+     */
+    public boolean cancel(Listener listener) {
+        synchronized (tapLock) {
+            Tap tap = findTap(listener);
+            if (tap != null) {
+                taps.remove(tap);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void shutdown() {
+        cancel();
+        recorder.release();
+    }
+
+    private Tap findTap(Listener listener) {
+        for (Tap tap : taps) {
+            if (tap.listener == listener) {
+                return tap;
+            }
+        }
+        return null;
+    }
+
+    private List<Listener> getListeners() {
+        List<Listener> listeners = new ArrayList<>(taps.size());
+        for (Tap tap : taps) {
+            listeners.add(tap.listener);
+        }
+        return listeners;
+    }
+
+    private boolean stopThreads(boolean deliverFinal) {
+        if (readerThread == null) {
+            return false;
+        }
+        try {
+            readerThread.interrupt();
+            readerThread.join();
+            decoderThread.deliverFinal = deliverFinal;
+            decoderThread.readerDone = true;
+            if (!deliverFinal) {
+                decoderThread.cancelled = true;
+                decoderThread.interrupt();
+            }
+            decoderThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.d(TAG, "Ring overruns " + ringBuffer.getOverruns() + ", underruns " + ringBuffer.getUnderruns());
+        readerThread = null;
+        decoderThread = null;
+        taps.clear();
+        mainHandler.removeCallbacks(publishLevel);
+        return true;
+    }
+
+    private void postError(String message) {
+        IOException ioe = new IOException(message);
+        mainHandler.post(() -> {
+            for (Listener listener : getListeners()) {
+                listener.onError(ioe);
+            }
+        });
+    }
+
+    private final class ReaderThread extends Thread {
+
+        ReaderThread() {
+            super("VoskAudioReader");
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+            recorder.startRecording();
+            if (recorder.getRecordingState() == AudioRecord.RECORDSTATE_STOPPED) {
+                recorder.stop();
+                postError("Failed to start recording. Microphone might be already in use.");
+                return;
+            }
+
+            // Keeps the recorder drained when the ring is full, the frame is lost either way.
+            short[] overflow = new short[ringBuffer.getFrameSize()];
+
+            while (!interrupted()) {
+                short[] buffer = ringBuffer.claim();
+                boolean dropped = buffer == null;
+                if (dropped) {
+                    buffer = overflow;
+                }
+
+                int nread = recorder.read(buffer, 0, buffer.length);
+                if (nread < 0) {
+                    recorder.stop();
+                    postError("Error reading from the microphone: " + nread);
+                    return;
+                }
+
+                if (meter.process(buffer, nread)) {
+                    mainHandler.post(publishLevel);
+                }
+                forwardBuffer(buffer, nread);
+
+                if (!dropped) {
+                    ringBuffer.publish(nread);
+                }
+            }
+
+            recorder.stop();
+        }
+
+        private void forwardBuffer(short[] buffer, int length) {
+            byte[] bytes = null;
+            for (Tap tap : taps) {
+                if (tap.forwardBuffers) {
+                    if (bytes == null) {
+                        bytes = toBytes(buffer, length);
+                    }
+                    final byte[] forwarded = bytes;
+                    final Listener listener = tap.listener;
+                    mainHandler.post(() -> listener.onBufferReceived(forwarded));
+                }
+            }
+        }
+    }
+
+    /**
+     * A recognizer fed from the pipeline, with its own voice activity state.
+     */
+    private final class Tap {
+        final Recognizer recognizer;
+        final Listener listener;
+        final boolean forwardBuffers;
+        final boolean partialResults;
+        final VoiceActivityDetector vad;
+        final boolean continuous;
+        final PreRollBuffer preRoll;
+        boolean speechStarted;
+        boolean ended;
+        long decodedSamples;
+        volatile long checkpointSamples;
+        // Ring position the listener stops at, frames captured after the stop are not decoded.
+        volatile long stopPosition = -1;
+
+        Tap(Recognizer recognizer, Listener listener, boolean forwardBuffers, boolean partialResults,
+            VoiceActivityDetector vad, boolean continuous) {
+            this.recognizer = recognizer;
+            this.listener = listener;
+            this.forwardBuffers = forwardBuffers;
+            this.partialResults = partialResults;
+            this.vad = vad;
+            this.continuous = continuous;
+            this.preRoll = vad == null ? null : new PreRollBuffer(
+                    (int) (VoiceActivityDetector.DEFAULT_PRE_ROLL_MILLIS / frameMillis), ringBuffer.getFrameSize());
+        }
+
+        void process(short[] frame, int length) {
+            if (vad != null) {
+                boolean wasSpeaking = vad.isSpeaking();
+                boolean speech = vad.process(frame, length);
+                if (!wasSpeaking) {
+                    if (!speech) {
+                        // Leading silence never reaches the decoder.
+                        preRoll.add(frame, length);
+                        return;
+                    }
+                    if (!speechStarted) {
+                        speechStarted = true;
+                        mainHandler.post(listener::onBeginningOfSpeech);
+                    }
+                    preRoll.drainTo(this::decode);
+                }
+            }
+
+            decode(frame, length);
+
+            if (checkpointSamples > 0 && decodedSamples >= checkpointSamples) {
+                checkpointSamples = 0;
+                final String result = recognizer.getFinalResult();
+                mainHandler.post(() -> listener.onCheckpoint(result));
+            }
+
+            if (vad != null && vad.isEndOfSpeech() && continuous) {
+                // Frames captured meanwhile wait in the ring, nothing is lost between segments.
+                final String result = recognizer.getFinalResult();
+                vad.endSegment();
+                mainHandler.post(() -> listener.onResult(result));
+            } else if (vad != null && vad.isEndOfSpeech()) {
+                mainHandler.post(listener::onEndOfSpeech);
+                ended = true;
+            }
+        }
+
+        private void decode(short[] frame, int length) {
+            decodedSamples += length;
+            if (recognizer.acceptWaveForm(frame, length)) {
+                final String result = recognizer.getResult();
+                mainHandler.post(() -> listener.onResult(result));
+            } else if (partialResults) {
+                final String partialResult = recognizer.getPartialResult();
+                mainHandler.post(() -> listener.onPartialResult(partialResult));
+            }
+        }
+
+        boolean isStopped(long position) {
+            long stop = stopPosition;
+            return stop >= 0 && position >= stop;
+        }
+
+        void deliverFinal() {
+            final String finalResult = recognizer.getFinalResult();
+            mainHandler.post(() -> listener.onFinalResult(finalResult));
+        }
+    }
+
+    private final class DecoderThread extends Thread {
+        volatile boolean readerDone;
+        volatile boolean deliverFinal;
+        volatile boolean cancelled;
+
+        DecoderThread() {
+            super("VoskAudioDecoder");
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!cancelled && !(readerDone && ringBuffer.isEmpty())) {
+                    short[] frame = ringBuffer.peek(frameMillis, TimeUnit.MILLISECONDS);
+                    synchronized (tapLock) {
+                        if (frame != null) {
+                            int length = ringBuffer.peekLength();
+                            long position = ringBuffer.getReleased();
+                            for (Tap tap : taps) {
+                                if (!tap.isStopped(position)) {
+                                    tap.process(frame, length);
+                                }
+                            }
+                            ringBuffer.release();
+                        }
+                        finishTaps(ringBuffer.getReleased());
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (deliverFinal && !cancelled) {
+                synchronized (tapLock) {
+                    for (Tap tap : taps) {
+                        tap.deliverFinal();
+                    }
+                    taps.clear();
+                }
+            }
+        }
+
+        // Taps that reached the end of speech or decoded up to their stop get their final result.
+        private void finishTaps(long position) {
+            for (Tap tap : taps) {
+                if (tap.ended || tap.isStopped(position)) {
+                    tap.deliverFinal();
+                    taps.remove(tap);
+                }
+            }
+        }
+    }
+
+    private static byte[] toBytes(short[] buffer, int length) {
+        byte[] bytes = new byte[length * 2];
+        for (int i = 0; i < length; i++) {
+            bytes[i * 2] = (byte) buffer[i];
+            bytes[i * 2 + 1] = (byte) (buffer[i] >> 8);
+        }
+        return bytes;
+    }
+}
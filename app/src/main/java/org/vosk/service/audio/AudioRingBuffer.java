@@ -0,0 +1,135 @@
+package org.vosk.service.audio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single-producer/single-consumer ring of PCM frames. The capture thread claims a
+ * slot, fills it and publishes it; the decoder thread peeks the oldest frame and releases it
+ * once consumed. No locks are taken and no memory is allocated after construction.
+ */
+public class AudioRingBuffer {
+
+    private final short[][] frames;
+    private final int[] lengths;
+    private final int capacity;
+
+    // Monotonic counters, slot index is counter % capacity.
+    private volatile long head;
+    private volatile long tail;
+
+    private volatile Thread waitingConsumer;
+
+    private volatile int overruns;
+    private volatile int underruns;
+
+    public AudioRingBuffer(int capacity, int frameSize) {
+        this.capacity = capacity;
+        this.frames = new short[capacity][frameSize];
+        this.lengths = new int[capacity];
+    }
+
+    public int getFrameSize() {
+        return frames[0].length;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Producer side. Returns the slot to fill, or null when the decoder has fallen a whole ring
+     * behind, in which case the overrun is counted and the frame is expected to be dropped.
+     */
+    public short[] claim() {
+        long t = tail;
+        if (t - head >= capacity) {
+            overruns++;
+            return null;
+        }
+        return frames[(int) (t % capacity)];
+    }
+
+    public void publish(int length) {
+        long t = tail;
+        lengths[(int) (t % capacity)] = length;
+        tail = t + 1;
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Consumer side. Returns the oldest published frame, waiting up to the given time for one to
+     * arrive. Returns null on timeout.
+     */
+    public short[] peek(long timeout, TimeUnit unit) throws InterruptedException {
+        long h = head;
+        if (h == tail) {
+            underruns++;
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            waitingConsumer = Thread.currentThread();
+            try {
+                while (h == tail) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                waitingConsumer = null;
+            }
+        }
+        return frames[(int) (h % capacity)];
+    }
+
+    public int peekLength() {
+        return lengths[(int) (head % capacity)];
+    }
+
+    public void release() {
+        head = head + 1;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Frames published so far. Once {@link #getReleased()} reaches a value read here, every
+     * frame captured before has been consumed.
+     */
+    public long getPublished() {
+        return tail;
+    }
+
+    public long getReleased() {
+        return head;
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public int getOverruns() {
+        return overruns;
+    }
+
+    public int getUnderruns() {
+        return underruns;
+    }
+
+    /**
+     * Drops all frames and counters, only valid while neither side is running.
+     */
+    public void clear() {
+        head = tail;
+        overruns = 0;
+        underruns = 0;
+    }
+}
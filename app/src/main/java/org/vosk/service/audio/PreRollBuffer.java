@@ -0,0 +1,45 @@
+package org.vosk.service.audio;
+
+/**
+ * Keeps copies of the most recent frames skipped before speech onset so that the start of the
+ * first word still reaches the recognizer.
+ */
+class PreRollBuffer {
+
+    interface FrameConsumer {
+        void accept(short[] frame, int length);
+    }
+
+    private final short[][] frames;
+    private final int[] lengths;
+    private int next;
+    private int size;
+
+    PreRollBuffer(int capacity, int frameSize) {
+        this.frames = new short[Math.max(1, capacity)][frameSize];
+        this.lengths = new int[frames.length];
+    }
+
+    void add(short[] frame, int length) {
+        System.arraycopy(frame, 0, frames[next], 0, length);
+        lengths[next] = length;
+        next = (next + 1) % frames.length;
+        if (size < frames.length) {
+            size++;
+        }
+    }
+
+    void drainTo(FrameConsumer consumer) {
+        int index = (next - size + frames.length) % frames.length;
+        for (int i = 0; i < size; i++) {
+            consumer.accept(frames[index], lengths[index]);
+            index = (index + 1) % frames.length;
+        }
+        clear();
+    }
+
+    void clear() {
+        next = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,142 @@
+package org.vosk.service.audio;
+
+/**
+ * Lightweight energy and zero-crossing voice activity detector. Frames are analysed in 10 ms
+ * blocks against an adaptive noise floor; a frame counts as speech when enough of its blocks are
+ * either clearly louder than the floor or moderately louder with a fricative-like crossing rate.
+ * It also tracks how long the speaker has been silent, in audio time rather than wall time.
+ */
+public class VoiceActivityDetector {
+
+    public static final long DEFAULT_COMPLETE_SILENCE_MILLIS = 800;
+    public static final long DEFAULT_PRE_ROLL_MILLIS = 300;
+
+    private static final int BLOCK_MILLIS = 10;
+    private static final float SPEECH_RATIO = 4.0f;
+    private static final float FRICATIVE_RATIO = 1.8f;
+    private static final float FRICATIVE_ZCR = 0.25f;
+    private static final float MIN_SPEECH_BLOCKS = 0.3f;
+    // About -50 dBFS, anything quieter is never speech.
+    private static final double MIN_SPEECH_ENERGY = 100.0 * 100.0;
+    private static final double NOISE_ADAPTATION = 0.05;
+
+    private final int sampleRate;
+    private final int blockSize;
+
+    private long completeSilenceMillis = DEFAULT_COMPLETE_SILENCE_MILLIS;
+    private long minimumLengthMillis;
+
+    private double noiseFloor;
+    private boolean speaking;
+    private long silenceSamples;
+    private long totalSamples;
+
+    public VoiceActivityDetector(int sampleRate) {
+        this.sampleRate = sampleRate;
+        this.blockSize = sampleRate * BLOCK_MILLIS / 1000;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setCompleteSilenceMillis(long completeSilenceMillis) {
+        this.completeSilenceMillis = completeSilenceMillis;
+    }
+
+    public long getCompleteSilenceMillis() {
+        return completeSilenceMillis;
+    }
+
+    public void setMinimumLengthMillis(long minimumLengthMillis) {
+        this.minimumLengthMillis = minimumLengthMillis;
+    }
+
+    public void reset() {
+        noiseFloor = 0;
+        speaking = false;
+        silenceSamples = 0;
+        totalSamples = 0;
+    }
+
+    /**
+     * Closes the current utterance but keeps the noise floor, for sessions that go on listening.
+     */
+    public void endSegment() {
+        speaking = false;
+        silenceSamples = 0;
+    }
+
+    public boolean isSpeaking() {
+        return speaking;
+    }
+
+    /**
+     * Analyses a frame, returns true if it contains speech.
+     */
+    public boolean process(short[] frame, int length) {
+        totalSamples += length;
+        int blocks = 0;
+        int speechBlocks = 0;
+        double frameEnergy = 0;
+
+        for (int offset = 0; offset + blockSize <= length; offset += blockSize) {
+            long sumSquares = 0;
+            int crossings = 0;
+            int previous = frame[offset];
+            for (int i = offset; i < offset + blockSize; i++) {
+                int sample = frame[i];
+                sumSquares += sample * sample;
+                if ((sample ^ previous) < 0) {
+                    crossings++;
+                }
+                previous = sample;
+            }
+            double energy = (double) sumSquares / blockSize;
+            float zcr = (float) crossings / blockSize;
+
+            if (noiseFloor == 0 || energy < noiseFloor) {
+                noiseFloor = Math.max(energy, 1.0);
+            }
+            if (isSpeechBlock(energy, zcr)) {
+                speechBlocks++;
+            }
+            frameEnergy += energy;
+            blocks++;
+        }
+        if (blocks == 0) {
+            return speaking && silenceSamples == 0;
+        }
+
+        boolean speech = speechBlocks >= blocks * MIN_SPEECH_BLOCKS;
+        if (speech) {
+            speaking = true;
+            silenceSamples = 0;
+        } else {
+            // Only let the floor creep up on non-speech so that long vowels do not raise it.
+            noiseFloor += NOISE_ADAPTATION * (frameEnergy / blocks - noiseFloor);
+            if (speaking) {
+                silenceSamples += length;
+            }
+        }
+        return speech;
+    }
+
+    /**
+     * True once speech has been followed by the configured length of silence and at least the
+     * minimum input length has been captured.
+     */
+    public boolean isEndOfSpeech() {
+        return speaking && completeSilenceMillis > 0
+                && silenceSamples * 1000L / sampleRate >= completeSilenceMillis
+                && totalSamples * 1000L / sampleRate >= minimumLengthMillis;
+    }
+
+    private boolean isSpeechBlock(double energy, float zcr) {
+        if (energy < MIN_SPEECH_ENERGY) {
+            return false;
+        }
+        return energy > noiseFloor * SPEECH_RATIO
+                || (energy > noiseFloor * FRICATIVE_RATIO && zcr > FRICATIVE_ZCR);
+    }
+}
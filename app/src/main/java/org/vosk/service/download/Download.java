@@ -7,10 +7,13 @@ public class Download {
     public final static int UNZIPPING = 202;
     public final static int COMPLETE = 203;
     public final static int RESTARTING = 204;
+    public final static int FAILED = 205;
 
     private int progress;
     private long currentFileSize;
     private long totalFileSize;
+    private long bytesPerSecond;
+    private long etaSeconds = -1;
     String modelName;
 
     public Download() {
@@ -56,6 +59,22 @@ public class Download {
         this.totalFileSize = totalFileSize;
     }
 
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getEtaSeconds() {
+        return etaSeconds;
+    }
+
+    public void setEtaSeconds(long etaSeconds) {
+        this.etaSeconds = etaSeconds;
+    }
+
     public String getModelName() {
         return modelName;
     }
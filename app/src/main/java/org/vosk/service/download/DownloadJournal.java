@@ -0,0 +1,180 @@
+package org.vosk.service.download;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Persisted state of an interrupted model download and the validators of the archive it belongs
+ * to. A streamed download records the archive offset up to which entries are completely
+ * extracted, a segmented one the byte ranges that are completely written. It lives next to the
+ * model directory and is removed once the download completes.
+ */
+public class DownloadJournal {
+    private final static String TAG = DownloadJournal.class.getSimpleName();
+
+    private static final String SUFFIX = ".journal";
+    private static final Gson gson = new Gson();
+
+    private transient File file;
+
+    private String modelName;
+    private long offset;
+    private long totalLength = -1;
+    private String etag;
+    private String lastModified;
+    private long segmentSize;
+    private boolean[] completedSegments;
+
+    public static File getFile(File modelRootPath, String modelName) {
+        return new File(modelRootPath, modelName + SUFFIX);
+    }
+
+    /**
+     * Loads the journal of a model, or returns an empty one if there is none or it is unusable.
+     */
+    public static DownloadJournal load(File modelRootPath, String modelName) {
+        File file = getFile(modelRootPath, modelName);
+        DownloadJournal journal = null;
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                journal = gson.fromJson(reader, DownloadJournal.class);
+            } catch (IOException | JsonParseException e) {
+                Log.w(TAG, "Discarding unreadable journal " + file, e);
+            }
+        }
+        if (journal == null || !modelName.equals(journal.modelName)) {
+            journal = new DownloadJournal();
+            journal.modelName = modelName;
+        }
+        journal.file = file;
+        return journal;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    public boolean canResume() {
+        return offset > 0 && getValidator() != null && !isSegmented();
+    }
+
+    public boolean isSegmented() {
+        return segmentSize > 0;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getSegmentCount() {
+        return completedSegments == null ? 0 : completedSegments.length;
+    }
+
+    public synchronized boolean isSegmentComplete(int index) {
+        return completedSegments[index];
+    }
+
+    public synchronized void completeSegment(int index) throws IOException {
+        completedSegments[index] = true;
+        save();
+    }
+
+    /**
+     * True if the journal describes the same archive as the given response headers.
+     */
+    public boolean matches(String etag, String lastModified, long totalLength) {
+        if (totalLength != this.totalLength) {
+            return false;
+        }
+        if (this.etag != null && etag != null) {
+            return this.etag.equals(etag);
+        }
+        return this.lastModified != null && this.lastModified.equals(lastModified);
+    }
+
+    /**
+     * Range request header resuming at the journaled offset.
+     */
+    public String getRange() {
+        return "bytes=" + offset + "-";
+    }
+
+    /**
+     * Value for If-Range, so the server sends the whole archive again if it changed. Weak
+     * entity tags are not allowed there, Last-Modified is used instead.
+     */
+    public String getValidator() {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return lastModified;
+    }
+
+    /**
+     * Starts over for a fresh archive described by the given response headers.
+     */
+    public void restart(String etag, String lastModified, long totalLength) throws IOException {
+        this.offset = 0;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.totalLength = totalLength;
+        this.segmentSize = 0;
+        this.completedSegments = null;
+        save();
+    }
+
+    /**
+     * Starts over as a segmented download of the archive described by the given response headers.
+     */
+    public synchronized void restartSegmented(String etag, String lastModified, long totalLength, long segmentSize) throws IOException {
+        this.offset = 0;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.totalLength = totalLength;
+        this.segmentSize = segmentSize;
+        this.completedSegments = new boolean[(int) ((totalLength + segmentSize - 1) / segmentSize)];
+        save();
+    }
+
+    public void setOffset(long offset) throws IOException {
+        this.offset = offset;
+        save();
+    }
+
+    public void delete() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    // Written to a temporary file and renamed, so a crash never leaves a torn journal behind.
+    private void save() throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temporary);
+             Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+            gson.toJson(this, writer);
+            writer.flush();
+            output.getFD().sync();
+        } catch (IOException e) {
+            throw new ZipStreamExtractor.WriteException("Cannot write " + temporary, e);
+        }
+        if (!temporary.renameTo(file)) {
+            throw new ZipStreamExtractor.WriteException("Cannot rename " + temporary, null);
+        }
+    }
+}
@@ -1,10 +1,7 @@
 package org.vosk.service.download;
 
-import static org.vosk.service.download.Download.CLEAR;
 import static org.vosk.service.download.Download.COMPLETE;
-import static org.vosk.service.download.Download.UNZIPPING;
-import static org.vosk.service.download.FileHelper.writeFile;
-import static org.vosk.service.download.VoskModelStorageClient.ServiceType.DOWNLOAD_MODEL;
+import static org.vosk.service.download.Download.FAILED;
 
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
@@ -14,46 +11,64 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.media.AudioAttributes;
+import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
 import android.os.IBinder;
 import android.preference.PreferenceManager;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
+import com.github.pwittchen.reactivenetwork.library.rx2.ReactiveNetwork;
+
 import org.vosk.service.R;
 import org.vosk.service.ui.selector.ModelListActivity;
 import org.vosk.service.utils.PreferenceConstants;
 import org.vosk.service.utils.Tools;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
-import okhttp3.ResponseBody;
 
 public class DownloadModelService extends Service {
+    private final static String TAG = DownloadModelService.class.getSimpleName();
 
     public static final String DOWNLOAD_MODEL_CHANNEL_ID_VALUE = "download_model_channel_id";
     public static final String DOWNLOAD_MODEL_CHANNEL_NAME = "Vosk model downloader";
     public static final int DOWNLOAD_MODEL_NOTIFICATION_ID = 1;
     public static final int DOWNLOAD_MODEL_MAX_PROGRESS = 100;
+    // Wait before resuming after a failure that can be retried, doubled on every new one.
+    private static final long RETRY_DELAY_SECONDS = 10;
+    private static final long MAX_RETRY_DELAY_SECONDS = 10 * 60;
 
     private static File MODEL_FILE_ROOT_PATH ;
     private final CompositeDisposable compositeDisposable = new CompositeDisposable();
-    private final VoskModelStorage service = VoskModelStorageClient.getClient(getListener(), DOWNLOAD_MODEL);
     private SharedPreferences sharedPreferences;
     private final EventBus eventBus = EventBus.getInstance();
     private NotificationManager notificationManager;
     private NotificationCompat.Builder notificationBuilder;
 
+    private DownloadQueue downloadQueue;
+    private ModelRegistry modelRegistry;
+    private final Map<String, ModelDownload> activeDownloads = new LinkedHashMap<>();
+    private final Map<String, Disposable> activeDisposables = new HashMap<>();
     private int actualProgress = 0;
-    private String modelName;
+    private Disposable retryDisposable;
+    private int failedRetries;
 
     @Nullable
     @Override
@@ -66,8 +81,8 @@ public class DownloadModelService extends Service {
         super.onCreate();
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
         MODEL_FILE_ROOT_PATH = Tools.getModelFileRootPath(this);
-        modelName = sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "");
-        downloadModel(modelName);
+        downloadQueue = DownloadQueue.getInstance(this);
+        modelRegistry = ModelRegistry.getInstance(this);
         observeEvents();
     }
 
@@ -76,65 +91,169 @@ public class DownloadModelService extends Service {
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(download -> {
-                    if (download.getProgress() == UNZIPPING) {
-
-                        File outputFile = new File(MODEL_FILE_ROOT_PATH, modelName + ".zip");
-                        File destinationFile = new File(MODEL_FILE_ROOT_PATH, modelName);
-
-                        FileHelper.unzipFIle(this, outputFile, destinationFile);
-                        actualProgress = CLEAR;
-                    } else if (download.getProgress() == COMPLETE) {
-                        sharedPreferences.edit()
-                                .remove(PreferenceConstants.DOWNLOADING_FILE)
-                                .apply();
-                        if (!sharedPreferences.contains(PreferenceConstants.ACTIVE_MODEL))
-                            sharedPreferences.edit().putString(PreferenceConstants.ACTIVE_MODEL, modelName).apply();
-                        stopSelf();
-                    } else {
-                        if (actualProgress != download.getProgress()) {
-                            actualProgress = download.getProgress();
+                    if (download.getProgress() <= DOWNLOAD_MODEL_MAX_PROGRESS) {
+                        int progress = getOverallProgress();
+                        if (actualProgress != progress) {
+                            actualProgress = progress;
                             updateNotificationProgress();
                         }
                     }
                 }));
-        compositeDisposable.add(EventBus.getInstance().geErrorObservable().subscribeOn(Schedulers.io()).subscribe(error -> stopSelf()));
+    }
+
+    private int getOverallProgress() {
+        if (activeDownloads.isEmpty()) {
+            return 0;
+        }
+        int sum = 0;
+        for (ModelDownload download : activeDownloads.values()) {
+            sum += download.getProgress();
+        }
+        return sum / activeDownloads.size();
     }
 
     private void updateNotificationProgress() {
+        long bytesPerSecond = 0;
+        long etaSeconds = -1;
+        for (ModelDownload download : activeDownloads.values()) {
+            bytesPerSecond += download.getBytesPerSecond();
+            etaSeconds = Math.max(etaSeconds, download.getEtaSeconds());
+        }
+        String text = getResources().getQuantityString(R.plurals.download_model_service_notification_text,
+                activeDownloads.size(), activeDownloads.size());
+        if (bytesPerSecond > 0 && etaSeconds >= 0) {
+            text = getString(R.string.download_model_service_notification_rate, text,
+                    Formatter.formatShortFileSize(this, bytesPerSecond), DateUtils.formatElapsedTime(etaSeconds));
+        }
+        notificationBuilder.setContentText(text);
         notificationBuilder.setProgress(DOWNLOAD_MODEL_MAX_PROGRESS, actualProgress, false);
         notificationBuilder.setSilent(true);
         notificationManager.notify(DOWNLOAD_MODEL_NOTIFICATION_ID, notificationBuilder.build());
     }
 
-    private DownloadProgressListener getListener() {
-        return (bytesRead, contentLength, done) -> {
-            Download download = new Download();
-            download.setTotalFileSize(contentLength);
-            download.setCurrentFileSize(bytesRead);
-            int progress = (int) ((bytesRead * 100) / contentLength);
-            download.setProgress(progress);
-            Log.d("DOWNLOAD", "Progress: " + progress);
-            EventBus.getInstance().postDownloadStatus(download);
-        };
+    /**
+     * Starts queued downloads, in queue order, until the concurrency limit is reached.
+     */
+    private void startQueuedDownloads() {
+        cancelRetry();
+        int concurrency = downloadQueue.getConcurrency();
+        for (String modelName : downloadQueue.getModels()) {
+            if (activeDownloads.size() >= concurrency) {
+                break;
+            }
+            if (!activeDownloads.containsKey(modelName)) {
+                startDownload(modelName);
+            }
+        }
+        if (activeDownloads.isEmpty()) {
+            stopSelf();
+        } else {
+            updateNotificationProgress();
+        }
     }
 
-    private void downloadModel(String modelName) {
-        File outputFile = new File(MODEL_FILE_ROOT_PATH, modelName + ".zip");
-        FileHelper.createDir(MODEL_FILE_ROOT_PATH);
+    private void startDownload(String modelName) {
+        Log.i(TAG, "Starting download of " + modelName + ", " + (activeDownloads.size() + 1) + " active");
+        ModelDownload download = new ModelDownload(modelName, MODEL_FILE_ROOT_PATH, getExpectedMd5(modelName));
+        activeDownloads.put(modelName, download);
+        Disposable disposable = download.download()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(() -> onDownloadComplete(modelName), error -> onDownloadFailed(modelName, error));
+        activeDisposables.put(modelName, disposable);
+        compositeDisposable.add(disposable);
+    }
 
-        compositeDisposable.add(service.downloadFile(outputFile.getName())
-                .subscribeOn(Schedulers.io())
-                .map(ResponseBody::byteStream)
-                .doOnNext(inputStream -> writeFile(inputStream, outputFile))
-                .subscribe(inputStream -> EventBus.getInstance().postDownloadStatus(new Download(UNZIPPING, modelName)),
-                        error -> EventBus.getInstance().postErrorStatus(Error.CONNECTION)));
+    private void onDownloadComplete(String modelName) {
+        ModelDownload download = activeDownloads.get(modelName);
+        if (download != null) {
+            modelRegistry.setInstalled(modelName, download.getInstalledSize(), download.getVerifiedMd5());
+        }
+        finishDownload(modelName);
+        failedRetries = 0;
+        downloadQueue.remove(modelName);
+        if (!sharedPreferences.contains(PreferenceConstants.ACTIVE_MODEL))
+            sharedPreferences.edit().putString(PreferenceConstants.ACTIVE_MODEL, modelName).apply();
+        eventBus.postDownloadStatus(new Download(COMPLETE, modelName));
+        startQueuedDownloads();
+    }
 
+    /**
+     * A download that can be resumed stays queued, the service picks it up again itself once the
+     * connection is back. Other failures drop it from the queue.
+     */
+    private void onDownloadFailed(String modelName, Throwable error) {
+        finishDownload(modelName);
+        eventBus.postErrorStatus(ModelDownload.getError(error));
+        if (!ModelDownload.isResumable(error)) {
+            downloadQueue.remove(modelName);
+            modelRegistry.remove(modelName);
+            eventBus.postDownloadStatus(new Download(FAILED, modelName));
+            startQueuedDownloads();
+        } else if (activeDownloads.isEmpty()) {
+            // Queued models are not started after a connection failure, it most likely hits them too.
+            scheduleRetry();
+        }
+    }
+
+    /**
+     * Resumes the queue after a delay, as soon as a network is connected.
+     */
+    private void scheduleRetry() {
+        if (retryDisposable != null) {
+            return;
+        }
+        long delay = Math.min(MAX_RETRY_DELAY_SECONDS, RETRY_DELAY_SECONDS << Math.min(failedRetries, 10));
+        failedRetries++;
+        Log.i(TAG, "Resuming downloads in " + delay + " s once connected");
+        notificationBuilder.setContentText(getString(R.string.download_model_service_notification_waiting));
+        notificationManager.notify(DOWNLOAD_MODEL_NOTIFICATION_ID, notificationBuilder.build());
+        retryDisposable = Observable.timer(delay, TimeUnit.SECONDS)
+                .flatMap(ignored -> ReactiveNetwork.observeNetworkConnectivity(getApplicationContext()))
+                .filter(connectivity -> connectivity.getState() == NetworkInfo.State.CONNECTED)
+                .firstElement()
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(connectivity -> startQueuedDownloads());
+        compositeDisposable.add(retryDisposable);
+    }
+
+    private void cancelRetry() {
+        if (retryDisposable != null) {
+            compositeDisposable.remove(retryDisposable);
+            retryDisposable = null;
+        }
+    }
+
+    private void finishDownload(String modelName) {
+        activeDownloads.remove(modelName);
+        Disposable disposable = activeDisposables.remove(modelName);
+        if (disposable != null) {
+            compositeDisposable.delete(disposable);
+        }
+    }
+
+    private String getExpectedMd5(String modelName) {
+        ModelRegistry.InstalledModel model = modelRegistry.get(modelName);
+        return model == null ? null : model.getItem().getMd5();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        registerNotification();
-        return START_NOT_STICKY;
+        // Every start through startForegroundService has to be answered with startForeground.
+        try {
+            if (notificationBuilder == null) {
+                registerNotification();
+            } else {
+                startForeground(DOWNLOAD_MODEL_NOTIFICATION_ID, notificationBuilder.build());
+            }
+        } catch (IllegalStateException e) {
+            // Android 12 and later may refuse a restart from the background, the queue waits for the app.
+            Log.w(TAG, "Cannot resume downloads in the background", e);
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+        // Restarted after process death with a null intent, the queue was saved and is read again.
+        startQueuedDownloads();
+        return START_STICKY;
     }
 
     private void registerNotification() {
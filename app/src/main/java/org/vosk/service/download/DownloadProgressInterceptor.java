@@ -3,6 +3,7 @@ package org.vosk.service.download;
 import androidx.annotation.NonNull;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
 
 import okhttp3.Interceptor;
 import okhttp3.Response;
@@ -21,7 +22,8 @@ public class DownloadProgressInterceptor implements Interceptor {
         Response originalResponse = chain.proceed(chain.request());
 
         return originalResponse.newBuilder()
-                .body(new DownloadProgressResponseBody(originalResponse.body(), listener))
+                .body(new DownloadProgressResponseBody(originalResponse.body(), listener,
+                        originalResponse.code() == HttpURLConnection.HTTP_OK))
                 .build();
     }
 }
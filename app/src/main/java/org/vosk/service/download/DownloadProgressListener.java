@@ -2,4 +2,10 @@ package org.vosk.service.download;
 
 public interface DownloadProgressListener {
     void update(long bytesRead, long contentLength, boolean done);
+
+    /**
+     * MD5 of a complete response body, called once it has been read to the end.
+     */
+    default void onDigest(String md5) {
+    }
 }
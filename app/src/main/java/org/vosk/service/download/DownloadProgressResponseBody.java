@@ -9,6 +9,7 @@ import okhttp3.ResponseBody;
 import okio.Buffer;
 import okio.BufferedSource;
 import okio.ForwardingSource;
+import okio.HashingSource;
 import okio.Okio;
 import okio.Source;
 
@@ -17,11 +18,19 @@ public class DownloadProgressResponseBody extends ResponseBody {
     private ResponseBody responseBody;
     DownloadProgressListener progressListener;
     private BufferedSource bufferedSource;
+    // Only bodies carrying a whole file are hashed, a range says nothing about the file digest.
+    private final boolean digest;
 
     public DownloadProgressResponseBody(ResponseBody responseBody,
                                         DownloadProgressListener progressListener) {
+        this(responseBody, progressListener, false);
+    }
+
+    public DownloadProgressResponseBody(ResponseBody responseBody,
+                                        DownloadProgressListener progressListener, boolean digest) {
         this.responseBody = responseBody;
         this.progressListener = progressListener;
+        this.digest = digest;
     }
 
     @Override
@@ -38,7 +47,7 @@ public class DownloadProgressResponseBody extends ResponseBody {
     @Override
     public BufferedSource source() {
         if (bufferedSource == null) {
-            bufferedSource = Okio.buffer(source(responseBody.source()));
+            bufferedSource = Okio.buffer(source(digest ? HashingSource.md5(responseBody.source()) : responseBody.source()));
         }
         return bufferedSource;
     }
@@ -46,6 +55,7 @@ public class DownloadProgressResponseBody extends ResponseBody {
     private Source source(Source source) {
         return new ForwardingSource(source) {
             long totalBytesRead = 0L;
+            boolean exhausted;
 
             @Override
             public long read(Buffer sink, long byteCount) throws IOException {
@@ -55,7 +65,12 @@ public class DownloadProgressResponseBody extends ResponseBody {
 
                 if (null != progressListener) {
                     progressListener.update(totalBytesRead, responseBody.contentLength(), bytesRead == -1);
+                    // The digest is updated by the hashing source as bytes pass, no second read.
+                    if (bytesRead == -1 && digest && !exhausted) {
+                        progressListener.onDigest(((HashingSource) delegate()).hash().hex());
+                    }
                 }
+                exhausted |= bytesRead == -1;
                 return bytesRead;
             }
         };
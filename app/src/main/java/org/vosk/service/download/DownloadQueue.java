@@ -0,0 +1,85 @@
+package org.vosk.service.download;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.vosk.service.utils.PreferenceConstants;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Models waiting to be downloaded or being downloaded, in request order. The queue is written to
+ * the preferences on every change so pending downloads survive process death.
+ */
+public class DownloadQueue {
+
+    public static final int DEFAULT_CONCURRENCY = 2;
+
+    private static DownloadQueue _instance;
+
+    private final Gson gson = new Gson();
+    private final SharedPreferences sharedPreferences;
+    private final LinkedHashSet<String> models;
+
+    public static synchronized DownloadQueue getInstance(Context context) {
+        if (_instance == null) {
+            _instance = new DownloadQueue(PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext()));
+        }
+        return _instance;
+    }
+
+    private DownloadQueue(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+        List<String> saved = gson.fromJson(sharedPreferences.getString(PreferenceConstants.DOWNLOAD_QUEUE, "[]"),
+                new TypeToken<List<String>>() {
+                }.getType());
+        models = new LinkedHashSet<>(saved);
+        // Download started by a version that had a single download slot.
+        String downloading = sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "");
+        if (!downloading.isEmpty()) {
+            models.add(downloading);
+            sharedPreferences.edit().remove(PreferenceConstants.DOWNLOADING_FILE).apply();
+            save();
+        }
+    }
+
+    public synchronized boolean enqueue(String modelName) {
+        boolean added = models.add(modelName);
+        if (added) {
+            save();
+        }
+        return added;
+    }
+
+    public synchronized void remove(String modelName) {
+        if (models.remove(modelName)) {
+            save();
+        }
+    }
+
+    public synchronized boolean contains(String modelName) {
+        return models.contains(modelName);
+    }
+
+    public synchronized boolean isEmpty() {
+        return models.isEmpty();
+    }
+
+    public synchronized List<String> getModels() {
+        return new ArrayList<>(models);
+    }
+
+    public int getConcurrency() {
+        return Math.max(1, sharedPreferences.getInt(PreferenceConstants.DOWNLOAD_CONCURRENCY, DEFAULT_CONCURRENCY));
+    }
+
+    private void save() {
+        sharedPreferences.edit().putString(PreferenceConstants.DOWNLOAD_QUEUE, gson.toJson(new ArrayList<>(models))).apply();
+    }
+}
@@ -2,5 +2,6 @@ package org.vosk.service.download;
 
 public enum Error {
     CONNECTION,
-    WRITE_STORAGE
+    WRITE_STORAGE,
+    CHECKSUM
 }
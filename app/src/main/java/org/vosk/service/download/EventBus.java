@@ -6,21 +6,23 @@ import org.vosk.service.ui.selector.ModelItem;
 
 import io.reactivex.Observable;
 import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
 
 public class EventBus {
     private static EventBus _instance;
 
-    private final PublishSubject<Download> downloadModelProgressEventSubject = PublishSubject.create();
-    private final PublishSubject<ModelItem> startDownloadEventSubject = PublishSubject.create();
-    private final PublishSubject<ModelItem> modelSelectedEventSubject = PublishSubject.create();
-    private final PublishSubject<Error> errorEventSubject = PublishSubject.create();
-    private final PublishSubject<NetworkInfo.State> connectionEventSubject = PublishSubject.create();
-    private final PublishSubject<ModelItem> deleteDownloadedModel = PublishSubject.create();
+    // Downloads post from several threads at once, serialized subjects keep the events in order.
+    private final Subject<Download> downloadModelProgressEventSubject = PublishSubject.<Download>create().toSerialized();
+    private final Subject<ModelItem> startDownloadEventSubject = PublishSubject.<ModelItem>create().toSerialized();
+    private final Subject<ModelItem> modelSelectedEventSubject = PublishSubject.<ModelItem>create().toSerialized();
+    private final Subject<Error> errorEventSubject = PublishSubject.<Error>create().toSerialized();
+    private final Subject<NetworkInfo.State> connectionEventSubject = PublishSubject.<NetworkInfo.State>create().toSerialized();
+    private final Subject<ModelItem> deleteDownloadedModel = PublishSubject.<ModelItem>create().toSerialized();
 
     public EventBus() {
     }
 
-    public static EventBus getInstance() {
+    public static synchronized EventBus getInstance() {
         if (_instance == null) {
             _instance = new EventBus();
         }
@@ -0,0 +1,296 @@
+package org.vosk.service.download;
+
+import static org.vosk.service.download.VoskModelStorageClient.ServiceType.DOWNLOAD_MODEL;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.zip.ZipException;
+
+import io.reactivex.Completable;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/**
+ * Download of a single model archive into the model directory. Each download has its own client
+ * so that progress and digests of concurrent downloads are never mixed up.
+ */
+public class ModelDownload {
+    private final static String TAG = ModelDownload.class.getSimpleName();
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final long SEGMENTED_MIN_LENGTH = 64 * 1024 * 1024;
+    // Room for the archive and its extracted content, which is somewhat larger.
+    private static final float SEGMENTED_SPACE_FACTOR = 2.5f;
+
+    private final String modelName;
+    private final File modelRootPath;
+    private final String expectedMd5;
+    private final VoskModelStorage service = VoskModelStorageClient.getClient(getListener(), DOWNLOAD_MODEL);
+
+    // Archive bytes already extracted by an earlier attempt, the response only carries the rest.
+    private volatile long resumeOffset;
+    private volatile boolean segmented;
+    private volatile String downloadedMd5;
+    private volatile String verifiedMd5;
+    private volatile long installedSize;
+    private final ProgressReporter progressReporter;
+
+    public ModelDownload(String modelName, File modelRootPath, String expectedMd5) {
+        this.modelName = modelName;
+        this.modelRootPath = modelRootPath;
+        this.expectedMd5 = expectedMd5;
+        this.progressReporter = new ProgressReporter(modelName);
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public int getProgress() {
+        return progressReporter.getProgress();
+    }
+
+    public long getBytesPerSecond() {
+        return progressReporter.getBytesPerSecond();
+    }
+
+    public long getEtaSeconds() {
+        return progressReporter.getEtaSeconds();
+    }
+
+    /**
+     * Size of the extracted model once the download completed.
+     */
+    public long getInstalledSize() {
+        return installedSize;
+    }
+
+    /**
+     * Digest of the archive if it was checked against the model list, null otherwise.
+     */
+    public String getVerifiedMd5() {
+        return verifiedMd5;
+    }
+
+    private DownloadProgressListener getListener() {
+        return new DownloadProgressListener() {
+            @Override
+            public void update(long bytesRead, long contentLength, boolean done) {
+                // Segmented downloads count their own progress across all connections.
+                if (!segmented) {
+                    postProgress(resumeOffset + bytesRead, resumeOffset + contentLength);
+                }
+            }
+
+            @Override
+            public void onDigest(String md5) {
+                downloadedMd5 = md5;
+            }
+        };
+    }
+
+    private void postProgress(long bytesRead, long contentLength) {
+        progressReporter.update(bytesRead, contentLength);
+    }
+
+    /**
+     * Downloads and extracts the model. Whatever an interrupted attempt leaves behind is reused by
+     * the next one when possible, and removed otherwise.
+     */
+    public Completable download() {
+        // The journal and directories are read and created on the io thread, not the caller's.
+        return Completable.defer(() -> {
+            String url = modelName + ".zip";
+            File destinationFile = new File(modelRootPath, modelName);
+            File zipFile = new File(modelRootPath, url);
+            FileHelper.createDir(modelRootPath);
+
+            DownloadJournal journal = DownloadJournal.load(modelRootPath, modelName);
+
+            return service.getFileInfo(url)
+                    .subscribeOn(Schedulers.io())
+                    .map(info -> prepareSegmented(info, journal, destinationFile, zipFile))
+                    .onErrorReturnItem(false)
+                    .flatMapCompletable(useSegments -> {
+                        segmented = useSegments;
+                        return useSegments
+                                ? downloadSegmented(url, journal, zipFile, destinationFile)
+                                : downloadStreaming(url, journal, destinationFile);
+                    })
+                    .doOnComplete(() -> {
+                        installedSize = FileHelper.getSize(destinationFile);
+                        progressReporter.reset();
+                        journal.delete();
+                        FileHelper.deleteFileOrDirectory(zipFile);
+                    })
+                    .doOnError(error -> {
+                        Log.e(TAG, "Download of " + modelName + " failed", error);
+                        if (!isResumable(error)) {
+                            journal.delete();
+                            FileHelper.deleteFileOrDirectory(zipFile);
+                            FileHelper.deleteFileOrDirectory(destinationFile);
+                        }
+                    });
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Segmented downloads need the archive on disk before it can be extracted, so they are only
+     * used for large archives served with ranges and when there is room for both copies.
+     * Everything else streams straight into the model directory.
+     */
+    private boolean prepareSegmented(Response<Void> info, DownloadJournal journal, File destinationFile, File zipFile) throws IOException {
+        if (journal.canResume() && destinationFile.exists()) {
+            return false;
+        }
+        String etag = info.headers().get("ETag");
+        String lastModified = info.headers().get("Last-Modified");
+        long length = getContentLength(info.headers().get("Content-Length"));
+        boolean segmentable = info.isSuccessful()
+                && "bytes".equalsIgnoreCase(info.headers().get("Accept-Ranges"))
+                && (etag != null || lastModified != null)
+                && length >= SEGMENTED_MIN_LENGTH;
+
+        if (segmentable && journal.isSegmented() && journal.matches(etag, lastModified, length) && zipFile.exists()) {
+            Log.i(TAG, "Resuming segmented download of " + modelName);
+            return true;
+        }
+        FileHelper.deleteFileOrDirectory(zipFile);
+        if (!segmentable || modelRootPath.getUsableSpace() < length * SEGMENTED_SPACE_FACTOR) {
+            if (journal.isSegmented()) {
+                journal.delete();
+            }
+            return false;
+        }
+        journal.restartSegmented(etag, lastModified, length, SegmentedDownloader.DEFAULT_SEGMENT_SIZE);
+        return true;
+    }
+
+    private static long getContentLength(String contentLength) {
+        try {
+            return contentLength == null ? -1 : Long.parseLong(contentLength);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Completable downloadSegmented(String url, DownloadJournal journal, File zipFile, File destinationFile) {
+        return new SegmentedDownloader(service, url, zipFile, journal, (bytesRead, contentLength, done) -> postProgress(bytesRead, contentLength))
+                .download()
+                .andThen(Completable.fromAction(() -> {
+                    progressReporter.reset();
+                    FileHelper.deleteFileOrDirectory(destinationFile);
+                    FileHelper.extractFile(zipFile, destinationFile,
+                            (bytesExtracted, totalSize, done) -> postProgress(bytesExtracted, totalSize));
+                }));
+    }
+
+    // The archive is extracted while it downloads, it never touches the disk as a whole.
+    private Completable downloadStreaming(String url, DownloadJournal journal, File destinationFile) {
+        boolean resume = journal.canResume() && destinationFile.exists();
+        return service.downloadFile(url, resume ? journal.getRange() : null, resume ? journal.getValidator() : null)
+                .doOnNext(response -> extract(response, journal, destinationFile))
+                .ignoreElements();
+    }
+
+    private void extract(Response<ResponseBody> response, DownloadJournal journal, File destinationFile) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new HttpException(response);
+        }
+        try (ResponseBody body = response.body()) {
+            long offset = 0;
+            if (response.code() == HttpURLConnection.HTTP_PARTIAL) {
+                offset = getRangeStart(response.headers().get("Content-Range"));
+                if (offset != journal.getOffset()) {
+                    throw new ZipException("Unexpected content range " + response.headers().get("Content-Range"));
+                }
+                Log.i(TAG, "Resuming " + modelName + " at " + offset + " of " + journal.getTotalLength());
+            } else {
+                // Either a fresh download or the archive changed on the server, start over.
+                FileHelper.deleteFileOrDirectory(destinationFile);
+                journal.restart(response.headers().get("ETag"), response.headers().get("Last-Modified"), body.contentLength());
+            }
+            resumeOffset = offset;
+            downloadedMd5 = null;
+            InputStream input = body.byteStream();
+            FileHelper.extractStream(input, destinationFile, offset,
+                    (name, nextEntryOffset) -> journal.setOffset(nextEntryOffset));
+            if (offset == 0) {
+                // The central directory is left after the last entry, it is part of the digest.
+                FileHelper.drain(input);
+                verifyChecksum();
+            }
+        }
+    }
+
+    private static long getRangeStart(String contentRange) {
+        // bytes <first>-<last>/<length>
+        if (contentRange != null && contentRange.startsWith("bytes ")) {
+            int dash = contentRange.indexOf('-');
+            if (dash > 6) {
+                try {
+                    return Long.parseLong(contentRange.substring(6, dash).trim());
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The digest is only known for archives received in one piece. Resumed and segmented
+     * downloads are covered by the CRC of every entry instead.
+     */
+    private void verifyChecksum() throws ChecksumException {
+        if (expectedMd5 == null || expectedMd5.isEmpty()) {
+            Log.w(TAG, "No checksum known for " + modelName);
+            return;
+        }
+        if (!expectedMd5.equalsIgnoreCase(downloadedMd5)) {
+            throw new ChecksumException("MD5 mismatch for " + modelName + ": expected " + expectedMd5 + ", got " + downloadedMd5);
+        }
+        verifiedMd5 = downloadedMd5;
+        Log.i(TAG, "Verified MD5 of " + modelName);
+    }
+
+    public static Error getError(Throwable error) {
+        if (error instanceof ZipStreamExtractor.WriteException) {
+            return Error.WRITE_STORAGE;
+        }
+        if (error instanceof ChecksumException) {
+            return Error.CHECKSUM;
+        }
+        return Error.CONNECTION;
+    }
+
+    private static class ChecksumException extends IOException {
+        ChecksumException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Network failures keep the extracted entries and the journal for the next attempt, anything
+     * that means the local copy cannot be trusted or the range is no longer valid starts over.
+     * Of the HTTP errors only server errors, timeouts and rate limiting are worth another try.
+     */
+    public static boolean isResumable(Throwable error) {
+        if (error instanceof HttpException) {
+            int code = ((HttpException) error).code();
+            return code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || code == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                    || code == HTTP_TOO_MANY_REQUESTS;
+        }
+        return error instanceof IOException
+                && !(error instanceof ZipException)
+                && !(error instanceof ChecksumException)
+                && !(error instanceof SegmentedDownloader.RangeException)
+                && !(error instanceof ZipStreamExtractor.WriteException);
+    }
+}
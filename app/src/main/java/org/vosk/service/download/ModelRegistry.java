@@ -0,0 +1,233 @@
+package org.vosk.service.download;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import org.vosk.service.ui.selector.ModelItem;
+import org.vosk.service.utils.PreferenceConstants;
+import org.vosk.service.utils.Tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Models on the device, including the ones still downloading, indexed by name. Lookups never
+ * touch the disk. Every change is written to a file of its own in the background, through a
+ * temporary file and a rename so the registry on disk is always complete.
+ */
+public class ModelRegistry {
+    private final static String TAG = ModelRegistry.class.getSimpleName();
+
+    private static final String FILE_NAME = "model-registry.json";
+
+    private static ModelRegistry _instance;
+
+    private final Gson gson = new Gson();
+    private final File file;
+    private final Map<String, InstalledModel> models = new LinkedHashMap<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    public static class InstalledModel {
+        private ModelItem item;
+        private long sizeOnDisk;
+        private String checksum;
+        private long installTime;
+        private long lastUsedTime;
+
+        InstalledModel() {
+        }
+
+        InstalledModel(ModelItem item) {
+            this.item = item;
+        }
+
+        public ModelItem getItem() {
+            return item;
+        }
+
+        public long getSizeOnDisk() {
+            return sizeOnDisk;
+        }
+
+        /**
+         * MD5 of the archive the model was extracted from, null if it could not be verified.
+         */
+        public String getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * Zero while the model is still downloading.
+         */
+        public long getInstallTime() {
+            return installTime;
+        }
+
+        public long getLastUsedTime() {
+            return lastUsedTime;
+        }
+
+        public boolean isInstalled() {
+            return installTime > 0;
+        }
+    }
+
+    public static synchronized ModelRegistry getInstance(Context context) {
+        if (_instance == null) {
+            _instance = new ModelRegistry(context.getApplicationContext());
+        }
+        return _instance;
+    }
+
+    private ModelRegistry(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+        if (file.exists()) {
+            load();
+        } else {
+            migrate(context);
+        }
+    }
+
+    private void load() {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            List<InstalledModel> saved = gson.fromJson(reader, new TypeToken<List<InstalledModel>>() {
+            }.getType());
+            if (saved != null) {
+                for (InstalledModel model : saved) {
+                    models.put(model.item.getName(), model);
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            Log.e(TAG, "Cannot read " + file, e);
+        }
+    }
+
+    // Models downloaded by a version that kept them as a list in the preferences.
+    private void migrate(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        List<ModelItem> offlineList = gson.fromJson(sharedPreferences.getString(PreferenceConstants.OFFLINE_LIST, "[]"),
+                new TypeToken<List<ModelItem>>() {
+                }.getType());
+        DownloadQueue downloadQueue = DownloadQueue.getInstance(context);
+        for (ModelItem item : offlineList) {
+            InstalledModel model = new InstalledModel(item);
+            if (!downloadQueue.contains(item.getName())) {
+                File modelDir = new File(Tools.getModelFileRootPath(context), item.getName());
+                model.sizeOnDisk = FileHelper.getSize(modelDir);
+                model.installTime = modelDir.lastModified();
+            }
+            models.put(item.getName(), model);
+        }
+        if (!offlineList.isEmpty()) {
+            Log.i(TAG, "Migrated " + offlineList.size() + " models");
+            save();
+        }
+        sharedPreferences.edit().remove(PreferenceConstants.OFFLINE_LIST).apply();
+    }
+
+    /**
+     * Registers a model whose download starts, it counts as installed once completed.
+     */
+    public synchronized void add(ModelItem item) {
+        if (!models.containsKey(item.getName())) {
+            models.put(item.getName(), new InstalledModel(item));
+            save();
+        }
+    }
+
+    public synchronized void setInstalled(String modelName, long sizeOnDisk, String checksum) {
+        InstalledModel model = models.get(modelName);
+        if (model != null) {
+            model.sizeOnDisk = sizeOnDisk;
+            model.checksum = checksum;
+            model.installTime = System.currentTimeMillis();
+            save();
+        }
+    }
+
+    public synchronized void setUsed(String modelName) {
+        InstalledModel model = models.get(modelName);
+        if (model != null) {
+            model.lastUsedTime = System.currentTimeMillis();
+            save();
+        }
+    }
+
+    public synchronized void remove(String modelName) {
+        if (models.remove(modelName) != null) {
+            save();
+        }
+    }
+
+    public synchronized boolean contains(String modelName) {
+        return models.containsKey(modelName);
+    }
+
+    public synchronized boolean isInstalled(String modelName) {
+        InstalledModel model = models.get(modelName);
+        return model != null && model.isInstalled();
+    }
+
+    public synchronized InstalledModel get(String modelName) {
+        return models.get(modelName);
+    }
+
+    public synchronized List<ModelItem> getModels() {
+        List<ModelItem> items = new ArrayList<>(models.size());
+        for (InstalledModel model : models.values()) {
+            items.add(model.item);
+        }
+        return items;
+    }
+
+    public synchronized List<InstalledModel> getInstalledModels() {
+        List<InstalledModel> installed = new ArrayList<>();
+        for (InstalledModel model : models.values()) {
+            if (model.isInstalled()) {
+                installed.add(model);
+            }
+        }
+        return installed;
+    }
+
+    // Serialized under the lock so that writes land in the order of the changes.
+    private void save() {
+        String json = gson.toJson(new ArrayList<>(models.values()));
+        writer.execute(() -> write(json));
+    }
+
+    private void write(String json) {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream output = new FileOutputStream(temporary);
+             Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+            writer.write(json);
+            writer.flush();
+            output.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot write " + temporary, e);
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            Log.e(TAG, "Cannot rename " + temporary);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.vosk.service.download;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a zip archive on disk with its entries spread over a fork-join pool sized to the core
+ * count. All workers share one ZipFile. The largest entries are started first, since a model's
+ * size is dominated by a few of them.
+ */
+public class ParallelZipExtractor {
+    private final static String TAG = ParallelZipExtractor.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final File zipFile;
+    private final File destination;
+    private final DownloadProgressListener listener;
+    private final int parallelism;
+
+    private final AtomicLong bytesExtracted = new AtomicLong();
+    private long totalSize;
+
+    public ParallelZipExtractor(File zipFile, File destination, DownloadProgressListener listener) {
+        this(zipFile, destination, listener, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelZipExtractor(File zipFile, File destination, DownloadProgressListener listener, int parallelism) {
+        this.zipFile = zipFile;
+        this.destination = destination;
+        this.listener = listener;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public void extract() throws IOException {
+        String destinationPath = destination.getCanonicalPath() + File.separator;
+        FileHelper.createDirs(destination);
+
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            List<ZipEntry> files = new ArrayList<>();
+            totalSize = 0;
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                File file = resolve(destinationPath, entry.getName());
+                if (entry.isDirectory()) {
+                    FileHelper.createDirs(file);
+                } else {
+                    FileHelper.createDirs(file.getParentFile());
+                    files.add(entry);
+                    totalSize += Math.max(entry.getSize(), 0);
+                }
+            }
+            Collections.sort(files, (a, b) -> Long.compare(b.getSize(), a.getSize()));
+
+            long start = System.nanoTime();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<Future<Void>> tasks = new ArrayList<>(files.size());
+                for (ZipEntry entry : files) {
+                    File file = new File(destination, entry.getName());
+                    tasks.add(pool.submit(() -> {
+                        extractEntry(zip, entry, file);
+                        return null;
+                    }));
+                }
+                for (Future<Void> task : tasks) {
+                    task.get();
+                }
+            } catch (ExecutionException e) {
+                // ForkJoinPool wraps the checked exceptions of submitted callables.
+                for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Extraction interrupted", e);
+            } finally {
+                pool.shutdownNow();
+            }
+            Log.i(TAG, "Extracted " + files.size() + " entries, " + totalSize + " bytes on "
+                    + parallelism + " threads in " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+    }
+
+    private static File resolve(String destinationPath, String name) throws IOException {
+        File file = new File(destinationPath, name);
+        String path = file.getCanonicalPath();
+        if (!path.startsWith(destinationPath) && !(path + File.separator).equals(destinationPath)) {
+            throw new ZipException("Entry outside of destination " + name);
+        }
+        return file;
+    }
+
+    private void extractEntry(ZipFile zip, ZipEntry entry, File file) throws IOException {
+        CRC32 crc = new CRC32();
+        FileOutputStream output;
+        try {
+            output = new FileOutputStream(file);
+        } catch (IOException e) {
+            throw new ZipStreamExtractor.WriteException("Cannot create " + file, e);
+        }
+        try (InputStream input = new CheckedInputStream(zip.getInputStream(entry), crc);
+             FileChannel channel = output.getChannel()) {
+            if (entry.getMethod() == ZipEntry.STORED) {
+                // Stored data needs no inflating, let the channel move it without our buffer.
+                ReadableByteChannel source = Channels.newChannel(input);
+                long size = entry.getSize();
+                long position = 0;
+                while (position < size) {
+                    long count = channel.transferFrom(source, position, Math.min(BUFFER_SIZE, size - position));
+                    if (count <= 0) {
+                        throw new ZipException("Truncated entry " + entry.getName());
+                    }
+                    position += count;
+                    onExtracted(count);
+                }
+            } else {
+                byte[] buffer = buffers.get();
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    write(channel, ByteBuffer.wrap(buffer, 0, count), entry.getName());
+                    onExtracted(count);
+                }
+            }
+        } finally {
+            output.close();
+        }
+        if (entry.getCrc() != -1 && crc.getValue() != entry.getCrc()) {
+            throw new ZipException("CRC mismatch for " + entry.getName());
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, String name) throws ZipStreamExtractor.WriteException {
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new ZipStreamExtractor.WriteException("Cannot write " + name, e);
+        }
+    }
+
+    private void onExtracted(long count) {
+        long extracted = bytesExtracted.addAndGet(count);
+        if (listener != null) {
+            listener.update(extracted, totalSize, extracted == totalSize);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.vosk.service.download;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Turns the byte counts reported on every read into download events. Counts are folded into
+ * this holder and an event is only posted when the percentage changes or the interval elapsed,
+ * so the per-read cost is a comparison rather than an allocation and a main thread hop. It also
+ * keeps a smoothed transfer rate for the ETA.
+ */
+public class ProgressReporter {
+    private final static String TAG = ProgressReporter.class.getSimpleName();
+
+    public static final long DEFAULT_INTERVAL_MS = 500;
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final String modelName;
+    private final long intervalMs;
+
+    private int progress = -1;
+    private long lastEmitTime;
+    private long lastEmitBytes;
+    private double bytesPerSecond;
+    private long etaSeconds = -1;
+    private long updates;
+    private long emitted;
+
+    public ProgressReporter(String modelName) {
+        this(modelName, DEFAULT_INTERVAL_MS);
+    }
+
+    public ProgressReporter(String modelName, long intervalMs) {
+        this.modelName = modelName;
+        this.intervalMs = intervalMs;
+    }
+
+    public synchronized void update(long bytesRead, long contentLength) {
+        updates++;
+        if (contentLength <= 0) {
+            return;
+        }
+        int newProgress = (int) ((bytesRead * 100) / contentLength);
+        long now = SystemClock.elapsedRealtime();
+        if (newProgress == progress && now - lastEmitTime < intervalMs) {
+            return;
+        }
+        if (lastEmitTime > 0 && now > lastEmitTime && bytesRead >= lastEmitBytes) {
+            double rate = (bytesRead - lastEmitBytes) * 1000.0 / (now - lastEmitTime);
+            bytesPerSecond = bytesPerSecond == 0 ? rate : bytesPerSecond + RATE_SMOOTHING * (rate - bytesPerSecond);
+        }
+        etaSeconds = bytesPerSecond > 0 ? (long) ((contentLength - bytesRead) / bytesPerSecond) : -1;
+        progress = newProgress;
+        lastEmitTime = now;
+        lastEmitBytes = bytesRead;
+        emitted++;
+
+        Download download = new Download(progress, bytesRead, contentLength);
+        download.setModelName(modelName);
+        download.setBytesPerSecond((long) bytesPerSecond);
+        download.setEtaSeconds(etaSeconds);
+        EventBus.getInstance().postDownloadStatus(download);
+    }
+
+    /**
+     * Starts a new phase, such as extraction after a segmented download, whose counts restart.
+     */
+    public synchronized void reset() {
+        Log.d(TAG, modelName + ": " + emitted + " events for " + updates + " updates");
+        progress = -1;
+        lastEmitTime = 0;
+        lastEmitBytes = 0;
+        bytesPerSecond = 0;
+        etaSeconds = -1;
+    }
+
+    public synchronized int getProgress() {
+        return Math.max(progress, 0);
+    }
+
+    public synchronized long getBytesPerSecond() {
+        return (long) bytesPerSecond;
+    }
+
+    public synchronized long getEtaSeconds() {
+        return etaSeconds;
+    }
+}
@@ -0,0 +1,180 @@
+package org.vosk.service.download;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.exceptions.CompositeException;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/**
+ * Downloads an archive as fixed size byte ranges fetched concurrently, each written at its
+ * offset into a preallocated file. Segments are handed out as connections free up, so a slow
+ * connection does not hold back the others, and completed segments are recorded in the journal
+ * so an interrupted download only fetches what is missing.
+ */
+public class SegmentedDownloader {
+    private final static String TAG = SegmentedDownloader.class.getSimpleName();
+
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private static final int MAX_RETRIES = 3;
+    // Doubled with each retry of a segment.
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Thrown when the server no longer serves the ranges of the archive the journal describes.
+     */
+    public static class RangeException extends IOException {
+        RangeException(String message) {
+            super(message);
+        }
+    }
+
+    private final VoskModelStorage service;
+    private final String url;
+    private final File file;
+    private final DownloadJournal journal;
+    private final DownloadProgressListener listener;
+    private final int concurrency;
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    public SegmentedDownloader(VoskModelStorage service, String url, File file, DownloadJournal journal,
+                               DownloadProgressListener listener) {
+        this(service, url, file, journal, listener, DEFAULT_CONCURRENCY);
+    }
+
+    public SegmentedDownloader(VoskModelStorage service, String url, File file, DownloadJournal journal,
+                               DownloadProgressListener listener, int concurrency) {
+        this.service = service;
+        this.url = url;
+        this.file = file;
+        this.journal = journal;
+        this.listener = listener;
+        this.concurrency = concurrency;
+    }
+
+    public Completable download() {
+        return Completable.using(() -> new RandomAccessFile(file, "rw"), output -> {
+            long totalLength = journal.getTotalLength();
+            if (output.length() != totalLength) {
+                output.setLength(totalLength);
+            }
+            FileChannel channel = output.getChannel();
+
+            List<Integer> pending = new ArrayList<>();
+            long done = 0;
+            for (int i = 0; i < journal.getSegmentCount(); i++) {
+                if (journal.isSegmentComplete(i)) {
+                    done += getSegmentEnd(i) - getSegmentStart(i);
+                } else {
+                    pending.add(i);
+                }
+            }
+            bytesWritten.set(done);
+            Log.i(TAG, "Downloading " + pending.size() + " of " + journal.getSegmentCount()
+                    + " segments over " + concurrency + " connections");
+
+            return Flowable.fromIterable(pending)
+                    .flatMapCompletable(index -> downloadSegment(channel, index)
+                            .retryWhen(SegmentedDownloader::backoff), false, concurrency)
+                    // Segments failing at once are reported together, the first one tells why.
+                    .onErrorResumeNext(error -> Completable.error(error instanceof CompositeException
+                            ? ((CompositeException) error).getExceptions().get(0) : error))
+                    .andThen(Completable.fromAction(() -> channel.force(false)));
+        }, RandomAccessFile::close);
+    }
+
+    private static Flowable<Long> backoff(Flowable<Throwable> errors) {
+        return errors
+                .zipWith(Flowable.range(1, MAX_RETRIES + 1), (error, attempt) ->
+                        attempt > MAX_RETRIES || error instanceof RangeException
+                                || error instanceof ZipStreamExtractor.WriteException
+                                ? Flowable.<Long>error(error)
+                                : Flowable.timer(RETRY_DELAY_MILLIS << (attempt - 1), TimeUnit.MILLISECONDS))
+                .flatMap(delay -> delay);
+    }
+
+    private long getSegmentStart(int index) {
+        return index * journal.getSegmentSize();
+    }
+
+    // Exclusive.
+    private long getSegmentEnd(int index) {
+        return Math.min(getSegmentStart(index) + journal.getSegmentSize(), journal.getTotalLength());
+    }
+
+    private Completable downloadSegment(FileChannel channel, int index) {
+        long start = getSegmentStart(index);
+        long end = getSegmentEnd(index);
+        return Completable.defer(() -> service.downloadFile(url, "bytes=" + start + "-" + (end - 1), journal.getValidator())
+                .subscribeOn(Schedulers.io())
+                .doOnNext(response -> writeSegment(response, channel, index, start, end))
+                .ignoreElements());
+    }
+
+    private void writeSegment(Response<ResponseBody> response, FileChannel channel, int index, long start, long end) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new HttpException(response);
+        }
+        long position = start;
+        try (ResponseBody body = response.body(); InputStream input = body.byteStream()) {
+            if (response.code() != HttpURLConnection.HTTP_PARTIAL) {
+                // If-Range did not match, the archive changed since the download started.
+                throw new RangeException("Range not served for segment " + index);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                if (position + count > end) {
+                    throw new RangeException("Segment " + index + " longer than requested");
+                }
+                write(channel, ByteBuffer.wrap(buffer, 0, count), position);
+                position += count;
+                listener.update(bytesWritten.addAndGet(count), journal.getTotalLength(), false);
+            }
+            if (position != end) {
+                throw new IOException("Segment " + index + " truncated at " + position);
+            }
+        } catch (IOException e) {
+            // The segment is fetched again from its start, take its bytes back out of the progress.
+            bytesWritten.addAndGet(start - position);
+            throw e;
+        }
+        // The journal must not record a segment a crash could still lose.
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new ZipStreamExtractor.WriteException("Cannot flush segment " + index, e);
+        }
+        journal.completeSegment(index);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws ZipStreamExtractor.WriteException {
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new ZipStreamExtractor.WriteException("Cannot write at " + position, e);
+        }
+    }
+}
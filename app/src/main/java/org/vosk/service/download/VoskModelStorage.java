@@ -6,15 +6,29 @@ import java.util.List;
 
 import io.reactivex.Observable;
 import okhttp3.ResponseBody;
+import retrofit2.Response;
 import retrofit2.http.GET;
+import retrofit2.http.HEAD;
+import retrofit2.http.Header;
+import retrofit2.http.Headers;
 import retrofit2.http.Streaming;
 import retrofit2.http.Url;
 
 public interface VoskModelStorage {
+    /**
+     * Range and If-Range are left out of the request when null.
+     */
     @Streaming
     @GET
-    Observable<ResponseBody> downloadFile(@Url String url);
+    Observable<Response<ResponseBody>> downloadFile(@Url String url, @Header("Range") String range, @Header("If-Range") String ifRange);
 
+    @HEAD
+    Observable<Response<Void>> getFileInfo(@Url String url);
+
+    /**
+     * Always revalidated, a cached list is sent again only after a 304.
+     */
+    @Headers("Cache-Control: no-cache")
     @GET("model-list.json")
     Observable<List<ModelItem>> getModelList();
 }
\ No newline at end of file
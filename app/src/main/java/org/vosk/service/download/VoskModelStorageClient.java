@@ -1,7 +1,11 @@
 package org.vosk.service.download;
 
+import android.content.Context;
+
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 import retrofit2.Retrofit;
 import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
@@ -13,6 +17,9 @@ public class VoskModelStorageClient {
     private static final int DEFAULT_TIMEOUT = 15;
     public static Retrofit retrofit;
     private static final String BASE_URL = "https://alphacephei.com/vosk/models/";
+    private static final long MODEL_LIST_CACHE_SIZE = 1024 * 1024;
+    // OkHttp allows only one Cache per directory, the client is shared by the whole process.
+    private static VoskModelStorage modelListClient;
 
     public static VoskModelStorage getClient(DownloadProgressListener listener, ServiceType serviceType) {
 
@@ -28,6 +35,26 @@ public class VoskModelStorageClient {
                 .connectTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
                 .build();
 
+        return create(client);
+    }
+
+    /**
+     * Model list client with a disk cache, so that an unchanged list is revalidated instead of
+     * downloaded again. Created on first use and shared afterwards.
+     */
+    public static synchronized VoskModelStorage getModelListClient(Context context) {
+        if (modelListClient == null) {
+            OkHttpClient client = new OkHttpClient.Builder()
+                    .retryOnConnectionFailure(true)
+                    .cache(new Cache(new File(context.getApplicationContext().getCacheDir(), "model-list"), MODEL_LIST_CACHE_SIZE))
+                    .connectTimeout(DEFAULT_TIMEOUT, TimeUnit.SECONDS)
+                    .build();
+            modelListClient = create(client);
+        }
+        return modelListClient;
+    }
+
+    private static VoskModelStorage create(OkHttpClient client) {
         Retrofit retrofit = new Retrofit.Builder()
                 .baseUrl(BASE_URL)
                 .addConverterFactory(GsonConverterFactory.create())
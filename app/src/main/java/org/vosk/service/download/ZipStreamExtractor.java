@@ -0,0 +1,296 @@
+package org.vosk.service.download;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Extracts a zip archive while it is still arriving, walking the local file headers in stream
+ * order. Unlike {@link java.util.zip.ZipInputStream} it never reads past the data it needs, so
+ * it knows the exact archive offset of every entry boundary, which is what lets an interrupted
+ * download resume at the first entry that was not fully written.
+ */
+public class ZipStreamExtractor implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_HEADER_SIGNATURE = 0x06054b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public interface Listener {
+        /**
+         * Called once an entry is completely written and verified, with the archive offset at
+         * which the next entry starts.
+         */
+        void onEntryExtracted(String name, long nextEntryOffset) throws IOException;
+    }
+
+    /**
+     * Thrown when writing to the destination fails, as opposed to reading the archive.
+     */
+    public static class WriteException extends IOException {
+        WriteException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final InputStream input;
+    private final File destination;
+    private final String destinationPath;
+    private final Listener listener;
+
+    private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+    private final byte[] outputBuffer = new byte[BUFFER_SIZE];
+    private int inputPosition;
+    private int inputLimit;
+    private long streamOffset;
+
+    private final CRC32 crc = new CRC32();
+    private final Inflater inflater = new Inflater(true);
+
+    /**
+     * @param startOffset archive offset at which the stream starts, it must be an entry boundary
+     */
+    public ZipStreamExtractor(InputStream input, File destination, long startOffset, Listener listener) throws IOException {
+        this.input = input;
+        this.destination = destination;
+        this.destinationPath = destination.getCanonicalPath() + File.separator;
+        this.streamOffset = startOffset;
+        this.listener = listener;
+    }
+
+    /**
+     * Archive offset of the next byte that has not been consumed yet.
+     */
+    public long getOffset() {
+        return streamOffset - (inputLimit - inputPosition);
+    }
+
+    public void extract() throws IOException {
+        while (true) {
+            int signature = readInt();
+            if (signature == CENTRAL_HEADER_SIGNATURE || signature == END_HEADER_SIGNATURE) {
+                return;
+            }
+            if (signature != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid local header signature at " + (getOffset() - 4));
+            }
+            extractEntry();
+        }
+    }
+
+    /**
+     * Frees the native inflater, the input stream is left to the caller.
+     */
+    @Override
+    public void close() {
+        inflater.end();
+    }
+
+    private void extractEntry() throws IOException {
+        readShort(); // version needed
+        int flags = readShort();
+        int method = readShort();
+        readInt(); // modification time and date
+        long expectedCrc = readInt() & 0xFFFFFFFFL;
+        long compressedSize = readInt() & 0xFFFFFFFFL;
+        long size = readInt() & 0xFFFFFFFFL;
+        int nameLength = readShort();
+        int extraLength = readShort();
+        String name = new String(readBytes(nameLength), (flags & 0x800) != 0 ? "UTF-8" : "IBM437");
+        byte[] extra = readBytes(extraLength);
+
+        boolean zip64 = compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC;
+        if (zip64) {
+            compressedSize = readZip64Sizes(extra, size, compressedSize)[1];
+        }
+        boolean descriptor = (flags & FLAG_DATA_DESCRIPTOR) != 0;
+
+        File outputFile = resolve(name);
+        boolean directory = name.endsWith("/");
+        FileHelper.createDirs(directory ? outputFile : outputFile.getParentFile());
+        crc.reset();
+        // Directory entries may still carry an empty deflate stream, it is consumed all the same.
+        try (OutputStream output = directory ? null : openOutput(outputFile)) {
+            if (method == METHOD_STORED) {
+                if (descriptor) {
+                    throw new ZipException("Stored entry without size " + name);
+                }
+                copyStored(output, compressedSize, name);
+            } else if (method == METHOD_DEFLATED) {
+                inflate(output, name);
+            } else {
+                throw new ZipException("Unsupported compression method " + method + " for " + name);
+            }
+        }
+
+        if (descriptor) {
+            int value = readInt();
+            if (value == DATA_DESCRIPTOR_SIGNATURE) {
+                value = readInt();
+            }
+            expectedCrc = value & 0xFFFFFFFFL;
+            if (zip64) {
+                readLong();
+                readLong();
+            } else {
+                readInt();
+                readInt();
+            }
+        }
+        if (crc.getValue() != expectedCrc) {
+            throw new ZipException("CRC mismatch for " + name);
+        }
+        listener.onEntryExtracted(name, getOffset());
+    }
+
+    private File resolve(String name) throws IOException {
+        File file = new File(destination, name);
+        String path = file.getCanonicalPath();
+        if (!path.startsWith(destinationPath) && !(path + File.separator).equals(destinationPath)) {
+            throw new ZipException("Entry outside of destination " + name);
+        }
+        return file;
+    }
+
+    private OutputStream openOutput(File file) throws WriteException {
+        try {
+            return new FileOutputStream(file);
+        } catch (IOException e) {
+            throw new WriteException("Cannot create " + file, e);
+        }
+    }
+
+    private void copyStored(OutputStream output, long remaining, String name) throws IOException {
+        while (remaining > 0) {
+            if (inputPosition == inputLimit) {
+                fill();
+            }
+            int count = (int) Math.min(remaining, inputLimit - inputPosition);
+            write(output, inputBuffer, inputPosition, count, name);
+            inputPosition += count;
+            remaining -= count;
+        }
+    }
+
+    private void write(OutputStream output, byte[] buffer, int offset, int length, String name) throws WriteException {
+        crc.update(buffer, offset, length);
+        if (output == null) {
+            return;
+        }
+        try {
+            output.write(buffer, offset, length);
+        } catch (IOException e) {
+            throw new WriteException("Cannot write " + name, e);
+        }
+    }
+
+    private void inflate(OutputStream output, String name) throws IOException {
+        inflater.reset();
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (inputPosition == inputLimit) {
+                        fill();
+                    }
+                    inflater.setInput(inputBuffer, inputPosition, inputLimit - inputPosition);
+                    inputPosition = inputLimit;
+                }
+                int count = inflater.inflate(outputBuffer);
+                if (count > 0) {
+                    write(output, outputBuffer, 0, count, name);
+                } else if (inflater.needsDictionary()) {
+                    throw new ZipException("Deflate dictionary required for " + name);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt data in " + name + ": " + e.getMessage());
+        }
+        // Hand back what the inflater did not consume, it belongs to the next header.
+        inputPosition -= inflater.getRemaining();
+    }
+
+    private long[] readZip64Sizes(byte[] extra, long size, long compressedSize) throws ZipException {
+        int position = 0;
+        while (position + 4 <= extra.length) {
+            int id = (extra[position] & 0xFF) | (extra[position + 1] & 0xFF) << 8;
+            int length = (extra[position + 2] & 0xFF) | (extra[position + 3] & 0xFF) << 8;
+            position += 4;
+            if (id == ZIP64_EXTRA_ID) {
+                int field = position;
+                if (size == ZIP64_MAGIC) {
+                    size = littleEndianLong(extra, field);
+                    field += 8;
+                }
+                if (compressedSize == ZIP64_MAGIC) {
+                    compressedSize = littleEndianLong(extra, field);
+                }
+                return new long[]{size, compressedSize};
+            }
+            position += length;
+        }
+        throw new ZipException("Missing zip64 sizes");
+    }
+
+    private static long littleEndianLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private void fill() throws IOException {
+        int count = input.read(inputBuffer, 0, inputBuffer.length);
+        if (count == -1) {
+            // The connection dropped, the download resumes from the last entry boundary.
+            throw new EOFException("Unexpected end of archive at " + streamOffset);
+        }
+        inputPosition = 0;
+        inputLimit = count;
+        streamOffset += count;
+    }
+
+    private int readByte() throws IOException {
+        if (inputPosition == inputLimit) {
+            fill();
+        }
+        return inputBuffer[inputPosition++] & 0xFF;
+    }
+
+    private int readShort() throws IOException {
+        return readByte() | readByte() << 8;
+    }
+
+    private int readInt() throws IOException {
+        return readShort() | readShort() << 16;
+    }
+
+    private long readLong() throws IOException {
+        return (readInt() & 0xFFFFFFFFL) | ((long) readInt()) << 32;
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) readByte();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,122 @@
+package org.vosk.service.recognition;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Turns client phrase lists into canonical grammar JSON identified by a content hash. Only the
+ * JSON strings and their hashes are cached here, compiling happens when a recognizer is created
+ * with the grammar. The hash is what RecognizerPool keys recognizers by, so sessions repeating a
+ * vocabulary reuse a pooled recognizer whose grammar is already compiled.
+ */
+public class GrammarCache {
+    private final static String TAG = GrammarCache.class.getSimpleName();
+
+    private static final int MAX_ENTRIES = 32;
+    private static final String UNKNOWN_WORD = "[unk]";
+
+    private static GrammarCache _instance;
+
+    private final Gson gson = new Gson();
+    private final Map<String, Grammar> grammars = new LinkedHashMap<String, Grammar>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Grammar> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private int hits;
+    private int misses;
+
+    public static synchronized GrammarCache getInstance() {
+        if (_instance == null) {
+            _instance = new GrammarCache();
+        }
+        return _instance;
+    }
+
+    /**
+     * Builds a grammar from free phrases. Phrases are normalized, deduplicated and sorted so the
+     * same vocabulary always maps to the same grammar, and "[unk]" is added so out of grammar
+     * speech is not forced onto a phrase.
+     */
+    public Grammar fromPhrases(Collection<String> phrases) {
+        TreeSet<String> normalized = new TreeSet<>();
+        for (String phrase : phrases) {
+            if (phrase != null) {
+                String trimmed = phrase.trim().toLowerCase(Locale.ROOT);
+                if (!trimmed.isEmpty()) {
+                    normalized.add(trimmed);
+                }
+            }
+        }
+        List<String> entries = new ArrayList<>(normalized);
+        entries.add(UNKNOWN_WORD);
+        return fromJson(gson.toJson(entries));
+    }
+
+    public synchronized Grammar fromJson(String json) {
+        String hash = hash(json);
+        Grammar grammar = grammars.get(hash);
+        if (grammar == null) {
+            misses++;
+            grammar = new Grammar(json, hash);
+            grammars.put(hash, grammar);
+        } else {
+            hits++;
+        }
+        return grammar;
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    private static String hash(String json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(json.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            Log.w(TAG, "SHA-1 unavailable, falling back to String.hashCode");
+            return json.length() + ":" + json.hashCode();
+        }
+    }
+
+    public static class Grammar {
+        final String json;
+        final String hash;
+
+        Grammar(String json, String hash) {
+            this.json = json;
+            this.hash = hash;
+        }
+
+        public String getJson() {
+            return json;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+}
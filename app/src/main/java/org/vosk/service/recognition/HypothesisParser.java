@@ -0,0 +1,519 @@
+package org.vosk.service.recognition;
+
+import java.util.Arrays;
+
+/**
+ * Streaming decoder for the JSON hypotheses produced by the recognizer. It only understands the
+ * handful of fields the service needs and keeps all of its buffers between calls, so parsing a
+ * partial result allocates nothing until the caller asks for a {@link String}.
+ */
+public class HypothesisParser {
+
+    private static final char[] KEY_TEXT = "text".toCharArray();
+    private static final char[] KEY_PARTIAL = "partial".toCharArray();
+    private static final char[] KEY_RESULT = "result".toCharArray();
+    private static final char[] KEY_WORD = "word".toCharArray();
+    private static final char[] KEY_START = "start".toCharArray();
+    private static final char[] KEY_END = "end".toCharArray();
+    private static final char[] KEY_CONF = "conf".toCharArray();
+    private static final char[] KEY_ALTERNATIVES = "alternatives".toCharArray();
+    private static final char[] KEY_CONFIDENCE = "confidence".toCharArray();
+
+    private static final int TARGET_TEXT = 0;
+    private static final int TARGET_WORDS = 1;
+    private static final int TARGET_ALTERNATIVES = 2;
+
+    private String json;
+    private int pos;
+
+    private char[] key = new char[16];
+    private int keyLength;
+
+    private char[] text = new char[256];
+    private int textLength;
+    private boolean hasText;
+    private boolean partial;
+
+    private char[] wordChars = new char[256];
+    private int wordCharsLength;
+    private int[] wordOffsets = new int[32];
+    private int[] wordLengths = new int[32];
+    private float[] wordStarts = new float[32];
+    private float[] wordEnds = new float[32];
+    private float[] wordConfidences = new float[32];
+    private int wordCount;
+    private int wordConfidenceCount;
+
+    private char[] alternativeChars = new char[256];
+    private int alternativeCharsLength;
+    private int[] alternativeOffsets = new int[8];
+    private int[] alternativeLengths = new int[8];
+    private float[] alternativeScores = new float[8];
+    private int alternativeCount;
+
+    public boolean parse(String json) {
+        this.json = json;
+        this.pos = 0;
+        textLength = 0;
+        hasText = false;
+        partial = false;
+        wordCharsLength = 0;
+        wordCount = 0;
+        wordConfidenceCount = 0;
+        alternativeCharsLength = 0;
+        alternativeCount = 0;
+        try {
+            skipWhitespace();
+            if (!consume('{')) {
+                return false;
+            }
+            parseTopLevel();
+            return hasText;
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        } finally {
+            this.json = null;
+        }
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public boolean hasText() {
+        return hasText;
+    }
+
+    public int getTextLength() {
+        return textLength;
+    }
+
+    public boolean textEquals(CharSequence other) {
+        if (other == null || other.length() != textLength) {
+            return false;
+        }
+        for (int i = 0; i < textLength; i++) {
+            if (text[i] != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getText() {
+        return new String(text, 0, textLength);
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public String getWord(int index) {
+        return new String(wordChars, wordOffsets[index], wordLengths[index]);
+    }
+
+    public float getWordStart(int index) {
+        return wordStarts[index];
+    }
+
+    public float getWordEnd(int index) {
+        return wordEnds[index];
+    }
+
+    /**
+     * NaN when the recognizer did not report it, results with alternatives have no word
+     * confidences.
+     */
+    public float getWordConfidence(int index) {
+        return wordConfidences[index];
+    }
+
+    public boolean hasWordConfidences() {
+        return wordConfidenceCount == wordCount;
+    }
+
+    /**
+     * Number of hypotheses in the N-best list, a plain result counts as a single hypothesis.
+     */
+    public int getAlternativeCount() {
+        return alternativeCount > 0 ? alternativeCount : (hasText ? 1 : 0);
+    }
+
+    public String getAlternative(int index) {
+        if (alternativeCount == 0) {
+            return getText();
+        }
+        return new String(alternativeChars, alternativeOffsets[index], alternativeLengths[index]);
+    }
+
+    /**
+     * Confidence of a hypothesis in [0, 1]. The recognizer reports unnormalized scores for
+     * alternatives, these are turned into posteriors with a softmax; a plain result uses the
+     * mean of its word confidences.
+     */
+    public float getAlternativeConfidence(int index) {
+        if (alternativeCount == 0) {
+            if (wordConfidenceCount == 0) {
+                return textLength == 0 ? 0f : 1f;
+            }
+            float sum = 0;
+            for (int i = 0; i < wordCount; i++) {
+                if (!Float.isNaN(wordConfidences[i])) {
+                    sum += wordConfidences[i];
+                }
+            }
+            return sum / wordConfidenceCount;
+        }
+        float best = alternativeScores[0];
+        for (int i = 1; i < alternativeCount; i++) {
+            best = Math.max(best, alternativeScores[i]);
+        }
+        double total = 0;
+        for (int i = 0; i < alternativeCount; i++) {
+            total += Math.exp(alternativeScores[i] - best);
+        }
+        return (float) (Math.exp(alternativeScores[index] - best) / total);
+    }
+
+    private void parseTopLevel() {
+        skipWhitespace();
+        if (consume('}')) {
+            return;
+        }
+        do {
+            skipWhitespace();
+            readKey();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyIs(KEY_TEXT) || keyIs(KEY_PARTIAL)) {
+                partial = keyIs(KEY_PARTIAL);
+                hasText = true;
+                textLength = readStringInto(TARGET_TEXT);
+            } else if (keyIs(KEY_RESULT) && peek() == '[') {
+                parseWords();
+            } else if (keyIs(KEY_ALTERNATIVES) && peek() == '[') {
+                parseAlternatives();
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+        } while (consume(','));
+        expect('}');
+    }
+
+    /**
+     * With max alternatives enabled the hypotheses are listed best first, the text and words of
+     * the first one also become the text and words of the result.
+     */
+    private void parseAlternatives() {
+        expect('[');
+        skipWhitespace();
+        if (consume(']')) {
+            return;
+        }
+        do {
+            skipWhitespace();
+            parseAlternative(alternativeCount++);
+            skipWhitespace();
+        } while (consume(','));
+        expect(']');
+    }
+
+    private void parseAlternative(int index) {
+        ensureAlternativeCapacity(index + 1);
+        alternativeOffsets[index] = alternativeCharsLength;
+        alternativeLengths[index] = 0;
+        alternativeScores[index] = 0f;
+
+        expect('{');
+        skipWhitespace();
+        if (consume('}')) {
+            return;
+        }
+        do {
+            skipWhitespace();
+            readKey();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyIs(KEY_TEXT)) {
+                alternativeOffsets[index] = alternativeCharsLength;
+                alternativeLengths[index] = readStringInto(TARGET_ALTERNATIVES);
+                alternativeCharsLength += alternativeLengths[index];
+                if (index == 0) {
+                    hasText = true;
+                    textLength = alternativeLengths[0];
+                    if (textLength > text.length) {
+                        text = grow(text, textLength);
+                    }
+                    System.arraycopy(alternativeChars, alternativeOffsets[0], text, 0, textLength);
+                }
+            } else if (keyIs(KEY_CONFIDENCE)) {
+                alternativeScores[index] = readNumber();
+            } else if (keyIs(KEY_RESULT) && index == 0 && peek() == '[') {
+                parseWords();
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+        } while (consume(','));
+        expect('}');
+    }
+
+    private void parseWords() {
+        expect('[');
+        skipWhitespace();
+        if (consume(']')) {
+            return;
+        }
+        do {
+            skipWhitespace();
+            parseWord();
+            skipWhitespace();
+        } while (consume(','));
+        expect(']');
+    }
+
+    private void parseWord() {
+        ensureWordCapacity(wordCount + 1);
+        int index = wordCount++;
+        wordOffsets[index] = wordCharsLength;
+        wordLengths[index] = 0;
+        wordStarts[index] = 0f;
+        wordEnds[index] = 0f;
+        wordConfidences[index] = Float.NaN;
+
+        expect('{');
+        skipWhitespace();
+        if (consume('}')) {
+            return;
+        }
+        do {
+            skipWhitespace();
+            readKey();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (keyIs(KEY_WORD)) {
+                wordOffsets[index] = wordCharsLength;
+                wordLengths[index] = readStringInto(TARGET_WORDS);
+                wordCharsLength += wordLengths[index];
+            } else if (keyIs(KEY_START)) {
+                wordStarts[index] = readNumber();
+            } else if (keyIs(KEY_END)) {
+                wordEnds[index] = readNumber();
+            } else if (keyIs(KEY_CONF)) {
+                if (Float.isNaN(wordConfidences[index])) {
+                    wordConfidenceCount++;
+                }
+                wordConfidences[index] = readNumber();
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+        } while (consume(','));
+        expect('}');
+    }
+
+    private void readKey() {
+        expect('"');
+        keyLength = 0;
+        char c;
+        while ((c = json.charAt(pos++)) != '"') {
+            if (c == '\\') {
+                c = readEscape();
+            }
+            if (keyLength == key.length) {
+                key = grow(key, keyLength + 1);
+            }
+            key[keyLength++] = c;
+        }
+    }
+
+    private boolean keyIs(char[] expected) {
+        if (keyLength != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < keyLength; i++) {
+            if (key[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a string value into the text buffer, or appends it to the word or alternative
+     * buffer, and returns its length.
+     */
+    private int readStringInto(int target) {
+        expect('"');
+        int length = 0;
+        char c;
+        while ((c = json.charAt(pos++)) != '"') {
+            if (c == '\\') {
+                c = readEscape();
+            }
+            switch (target) {
+                case TARGET_TEXT:
+                    if (length == text.length) {
+                        text = grow(text, length + 1);
+                    }
+                    text[length] = c;
+                    break;
+                case TARGET_WORDS:
+                    if (wordCharsLength + length == wordChars.length) {
+                        wordChars = grow(wordChars, wordCharsLength + length + 1);
+                    }
+                    wordChars[wordCharsLength + length] = c;
+                    break;
+                default:
+                    if (alternativeCharsLength + length == alternativeChars.length) {
+                        alternativeChars = grow(alternativeChars, alternativeCharsLength + length + 1);
+                    }
+                    alternativeChars[alternativeCharsLength + length] = c;
+                    break;
+            }
+            length++;
+        }
+        return length;
+    }
+
+    private char readEscape() {
+        char c = json.charAt(pos++);
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    value = (value << 4) | Character.digit(json.charAt(pos++), 16);
+                }
+                return (char) value;
+            default:
+                return c;
+        }
+    }
+
+    private float readNumber() {
+        boolean negative = consume('-');
+        double value = 0;
+        char c;
+        while (isDigit(c = peek())) {
+            value = value * 10 + (c - '0');
+            pos++;
+        }
+        if (consume('.')) {
+            double scale = 0.1;
+            while (isDigit(c = peek())) {
+                value += (c - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+        }
+        if (peek() == 'e' || peek() == 'E') {
+            pos++;
+            boolean negativeExponent = consume('-');
+            if (!negativeExponent) {
+                consume('+');
+            }
+            int exponent = 0;
+            while (isDigit(c = peek())) {
+                exponent = exponent * 10 + (c - '0');
+                pos++;
+            }
+            value *= Math.pow(10, negativeExponent ? -exponent : exponent);
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private void skipValue() {
+        char c = peek();
+        if (c == '"') {
+            pos++;
+            while ((c = json.charAt(pos++)) != '"') {
+                if (c == '\\') {
+                    readEscape();
+                }
+            }
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = json.charAt(pos++);
+                if (c == '"') {
+                    pos--;
+                    skipValue();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            while (pos < json.length() && (c = json.charAt(pos)) != ',' && c != '}' && c != ']') {
+                pos++;
+            }
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private char peek() {
+        return pos < json.length() ? json.charAt(pos) : 0;
+    }
+
+    private boolean consume(char c) {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!consume(c)) {
+            throw new IndexOutOfBoundsException("Expected '" + c + "' at " + pos);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private void ensureWordCapacity(int capacity) {
+        if (capacity > wordOffsets.length) {
+            int size = Math.max(capacity, wordOffsets.length * 2);
+            wordOffsets = Arrays.copyOf(wordOffsets, size);
+            wordLengths = Arrays.copyOf(wordLengths, size);
+            wordStarts = Arrays.copyOf(wordStarts, size);
+            wordEnds = Arrays.copyOf(wordEnds, size);
+            wordConfidences = Arrays.copyOf(wordConfidences, size);
+        }
+    }
+
+    private void ensureAlternativeCapacity(int capacity) {
+        if (capacity > alternativeOffsets.length) {
+            int size = Math.max(capacity, alternativeOffsets.length * 2);
+            alternativeOffsets = Arrays.copyOf(alternativeOffsets, size);
+            alternativeLengths = Arrays.copyOf(alternativeLengths, size);
+            alternativeScores = Arrays.copyOf(alternativeScores, size);
+        }
+    }
+
+    private static char[] grow(char[] buffer, int minCapacity) {
+        return Arrays.copyOf(buffer, Math.max(minCapacity, buffer.length * 2));
+    }
+}
@@ -0,0 +1,285 @@
+package org.vosk.service.recognition;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import org.vosk.Model;
+import org.vosk.service.download.FileHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Process wide cache of loaded models, keyed by model path and modification time so that a
+ * re-downloaded model is never served from a stale entry. Models are kept in least recently
+ * used order within a memory budget, so switching between a few models does not reload them.
+ */
+public class ModelCache {
+    private final static String TAG = ModelCache.class.getSimpleName();
+
+    private static final int MAX_RELOADS = 2;
+
+    public interface Listener {
+        /**
+         * Called right before an evicted model is closed, with the cache locked.
+         */
+        void onModelClosing(Model model);
+    }
+
+    private static ModelCache _instance;
+
+    // In access order, the least recently requested model comes first.
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // Entries of models handed out and not released yet, evicted ones included.
+    private final Map<Model, Entry> inUse = new IdentityHashMap<>();
+    private long memoryBudget = Long.MAX_VALUE;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public static synchronized ModelCache getInstance() {
+        if (_instance == null) {
+            _instance = new ModelCache();
+        }
+        return _instance;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public static String keyOf(File modelDir) {
+        return modelDir.getAbsolutePath() + "@" + modelDir.lastModified();
+    }
+
+    /**
+     * Bytes of model files the cache may keep loaded, the models requested last are kept even
+     * if they alone exceed it.
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        trimToBudget(Collections.emptySet());
+    }
+
+    /**
+     * Loads the model, or hands out the loaded one. Every model received must be given back with
+     * {@link #release(Model)}, a model is only closed once evicted and released by all users.
+     */
+    public Single<Model> get(File modelDir) {
+        // An entry evicted while loading is closed before it is handed out, load it again then.
+        return Single.defer(() -> {
+            Entry entry;
+            synchronized (this) {
+                entry = getEntry(modelDir);
+                trimToBudget(Collections.singleton(entry.key));
+            }
+            return entry.single.map(entry::acquire);
+        }).retry(MAX_RELOADS, error -> error instanceof EvictedException);
+    }
+
+    /**
+     * Loads several models at once, none of them is evicted to make room for another.
+     */
+    public Single<List<Model>> get(List<File> modelDirs) {
+        return Single.defer(() -> {
+            List<Entry> requested = new ArrayList<>(modelDirs.size());
+            List<Single<Model>> singles = new ArrayList<>(modelDirs.size());
+            synchronized (this) {
+                Set<String> keys = new HashSet<>();
+                for (File modelDir : modelDirs) {
+                    Entry entry = getEntry(modelDir);
+                    requested.add(entry);
+                    keys.add(entry.key);
+                    singles.add(entry.single);
+                }
+                trimToBudget(keys);
+            }
+            return Single.zip(singles, models -> acquire(requested));
+        }).retry(MAX_RELOADS, error -> error instanceof EvictedException);
+    }
+
+    // All or none, a model closed meanwhile fails the request.
+    private synchronized List<Model> acquire(List<Entry> requested) throws EvictedException {
+        List<Model> models = new ArrayList<>(requested.size());
+        for (Entry entry : requested) {
+            if (entry.closed) {
+                for (Model model : models) {
+                    release(model);
+                }
+                throw new EvictedException(entry.key);
+            }
+            models.add(entry.acquire(entry.model));
+        }
+        return models;
+    }
+
+    /**
+     * Takes another reference on a model received from the cache, for objects that keep using it
+     * after the caller has released its own. Given back with {@link #release(Model)}.
+     */
+    public synchronized void retain(Model model) {
+        Entry entry = inUse.get(model);
+        if (entry == null) {
+            throw new IllegalStateException("Retaining a model not in use");
+        }
+        entry.users++;
+    }
+
+    public synchronized void release(Model model) {
+        Entry entry = inUse.get(model);
+        if (entry == null) {
+            Log.w(TAG, "Releasing a model not in use");
+            return;
+        }
+        if (--entry.users == 0) {
+            inUse.remove(model);
+            entry.closeIfUnused();
+        }
+    }
+
+    private Entry getEntry(File modelDir) {
+        final String key = keyOf(modelDir);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Log.i(TAG, "Loading model " + key);
+            entry = new Entry(key, modelDir.getAbsolutePath(), FileHelper.getSize(modelDir));
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    // Only loaded models nobody uses are evicted, a model still loading is about to be handed out.
+    private void trimToBudget(Collection<String> keepKeys) {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            total += entry.size;
+        }
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (total > memoryBudget && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.model != null && entry.users == 0 && !keepKeys.contains(entry.key)) {
+                Log.i(TAG, "Evicting model " + entry.key + ", " + total / 1024 + " of " + memoryBudget / 1024 + " kB cached");
+                iterator.remove();
+                entry.evict();
+                total -= entry.size;
+            }
+        }
+    }
+
+    public void preload(File modelDir) {
+        //noinspection ResultOfMethodCallIgnored
+        get(modelDir).subscribe(model -> {
+            Log.d(TAG, "Preloaded " + modelDir);
+            release(model);
+        }, error -> Log.e(TAG, "Preload failed " + modelDir, error));
+    }
+
+    public void onTrimMemory(int level, File activeModelDir) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            evict(null);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            evict(activeModelDir == null ? null : keyOf(activeModelDir));
+        }
+    }
+
+    /**
+     * Drops all models but one from the cache. Models still in use are closed once released.
+     */
+    public synchronized void evict(String keepKey) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (!entry.key.equals(keepKey)) {
+                Log.i(TAG, "Evicting model " + entry.key);
+                iterator.remove();
+                entry.evict();
+            }
+        }
+    }
+
+    private synchronized void remove(Entry entry) {
+        if (entries.get(entry.key) == entry) {
+            entries.remove(entry.key);
+        }
+    }
+
+    private static class EvictedException extends IOException {
+        EvictedException(String key) {
+            super("Model " + key + " was evicted while loading");
+        }
+    }
+
+    private class Entry {
+        final String key;
+        final long size;
+        final Single<Model> single;
+        volatile Model model;
+        // Guarded by the cache.
+        int users;
+        boolean evicted;
+        boolean closed;
+
+        Entry(String key, String path, long size) {
+            this.key = key;
+            this.size = size;
+            this.single = Single.fromCallable(() -> {
+                        // The native loader reads the files sequentially, warm them up in parallel first.
+                        ModelPrefetcher.prefetch(new File(path));
+                        return new Model(path);
+                    })
+                    .doOnSuccess(model -> this.model = model)
+                    // Subscribers waiting for the load have acquired it by now.
+                    .doAfterSuccess(model -> {
+                        synchronized (ModelCache.this) {
+                            closeIfUnused();
+                        }
+                    })
+                    .doOnError(error -> remove(this))
+                    .subscribeOn(Schedulers.io())
+                    .cache();
+        }
+
+        Model acquire(Model model) throws EvictedException {
+            synchronized (ModelCache.this) {
+                if (closed) {
+                    throw new EvictedException(key);
+                }
+                users++;
+                inUse.put(model, this);
+                return model;
+            }
+        }
+
+        void evict() {
+            evicted = true;
+            closeIfUnused();
+        }
+
+        void closeIfUnused() {
+            if (evicted && users == 0 && model != null && !closed) {
+                Log.i(TAG, "Closing model " + key);
+                closed = true;
+                for (Listener listener : listeners) {
+                    listener.onModelClosing(model);
+                }
+                model.close();
+            }
+        }
+    }
+}
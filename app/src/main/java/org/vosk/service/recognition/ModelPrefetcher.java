@@ -0,0 +1,102 @@
+package org.vosk.service.recognition;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Warms the page cache with the model files the first decode needs, before the native side reads
+ * them. Files are read a few at a time, so the storage queue stays busy, through a small buffer
+ * per thread. Nothing is mapped or kept, the data only stays in the page cache as clean pages the
+ * kernel can drop under pressure. Rescoring and RNNLM files are left to the native loader, they
+ * are not needed before the end of the first utterance.
+ */
+public class ModelPrefetcher {
+    private final static String TAG = ModelPrefetcher.class.getSimpleName();
+
+    private static final int PARALLELISM = 3;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final long TIMEOUT_SECONDS = 60;
+    // In the order the recognizer reads them.
+    private static final String[] FIRST_DECODE_DIRS = {"conf", "am", "ivector", "graph"};
+
+    public static void prefetch(File modelDir) {
+        long start = SystemClock.elapsedRealtime();
+
+        List<File> files = new ArrayList<>();
+        for (String dir : FIRST_DECODE_DIRS) {
+            int first = files.size();
+            collectFiles(new File(modelDir, dir), files);
+            Collections.sort(files.subList(first, files.size()));
+        }
+
+        AtomicLong bytesRead = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLELISM);
+        ThreadLocal<ByteBuffer> buffers = new ThreadLocal<>();
+        for (File file : files) {
+            executor.execute(() -> bytesRead.addAndGet(read(file, buffers)));
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                Log.w(TAG, "Prefetch of " + modelDir + " timed out");
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        Log.i(TAG, "Prefetched " + modelDir + ": " + files.size() + " files, "
+                + bytesRead.get() / 1024 + " kB in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    private static void collectFiles(File dir, List<File> files) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collectFiles(child, files);
+            } else if (child.length() > 0) {
+                files.add(child);
+            }
+        }
+    }
+
+    private static long read(File file, ThreadLocal<ByteBuffer> buffers) {
+        ByteBuffer buffer = buffers.get();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffers.set(buffer);
+        }
+        long total = 0;
+        try (FileInputStream input = new FileInputStream(file); FileChannel channel = input.getChannel()) {
+            int count;
+            do {
+                buffer.clear();
+                count = channel.read(buffer);
+                total += Math.max(count, 0);
+            } while (count >= 0);
+        } catch (ClosedByInterruptException e) {
+            // Timed out, the native loader reads the rest.
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot prefetch " + file, e);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,124 @@
+package org.vosk.service.recognition;
+
+import org.vosk.service.download.ModelRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Picks installed models for the language a client asks for. Clients send BCP 47 tags such as
+ * "en-US", the model list uses lower case tags and a few codes of its own, "en-us" or "cn".
+ */
+public class ModelSelector {
+
+    public static final int MAX_DETECTION_CANDIDATES = 3;
+
+    private static final Map<String, String> MODEL_LIST_CODES = new HashMap<>();
+
+    static {
+        MODEL_LIST_CODES.put("zh", "cn");
+        MODEL_LIST_CODES.put("vi", "vn");
+        MODEL_LIST_CODES.put("kk", "kz");
+        MODEL_LIST_CODES.put("uk", "ua");
+    }
+
+    private final ModelRegistry modelRegistry;
+
+    public ModelSelector(ModelRegistry modelRegistry) {
+        this.modelRegistry = modelRegistry;
+    }
+
+    /**
+     * Installed model for the language, the preferred one if it matches as well as the others,
+     * otherwise the one used last. A model of the same language but another region only counts
+     * when none matches exactly. Null when no installed model speaks the language.
+     */
+    public ModelRegistry.InstalledModel forLanguage(String languageTag, String preferredName) {
+        String language = normalize(languageTag);
+        ModelRegistry.InstalledModel best = null;
+        int bestMatch = 0;
+        for (ModelRegistry.InstalledModel model : modelRegistry.getInstalledModels()) {
+            int match = match(language, model);
+            if (match > bestMatch || (match == bestMatch && match > 0 && isPreferred(model, best, preferredName))) {
+                best = model;
+                bestMatch = match;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Models to listen with when the client did not tell its language, one per language. The
+     * preferred model comes first, then the ones used last.
+     */
+    public List<ModelRegistry.InstalledModel> getDetectionCandidates(List<String> allowedLanguages, String preferredName) {
+        List<ModelRegistry.InstalledModel> candidates = new ArrayList<>();
+        if (allowedLanguages != null && !allowedLanguages.isEmpty()) {
+            for (String languageTag : allowedLanguages) {
+                ModelRegistry.InstalledModel model = forLanguage(languageTag, preferredName);
+                if (model != null && !candidates.contains(model)) {
+                    candidates.add(model);
+                }
+            }
+        } else {
+            Map<String, ModelRegistry.InstalledModel> byLanguage = new HashMap<>();
+            for (ModelRegistry.InstalledModel model : modelRegistry.getInstalledModels()) {
+                String language = normalize(model.getItem().getLang());
+                ModelRegistry.InstalledModel other = byLanguage.get(language);
+                if (other == null || isPreferred(model, other, preferredName)) {
+                    byLanguage.put(language, model);
+                }
+            }
+            candidates.addAll(byLanguage.values());
+        }
+        Collections.sort(candidates, (a, b) -> isPreferred(a, b, preferredName) ? -1 : isPreferred(b, a, preferredName) ? 1 : 0);
+        return candidates.size() > MAX_DETECTION_CANDIDATES ? candidates.subList(0, MAX_DETECTION_CANDIDATES) : candidates;
+    }
+
+    private static boolean isPreferred(ModelRegistry.InstalledModel model, ModelRegistry.InstalledModel other, String preferredName) {
+        if (other == null) {
+            return true;
+        }
+        boolean preferred = model.getItem().getName().equals(preferredName);
+        if (preferred != other.getItem().getName().equals(preferredName)) {
+            return preferred;
+        }
+        return model.getLastUsedTime() > other.getLastUsedTime();
+    }
+
+    // 2 for the same language and region, 1 for the same language.
+    private static int match(String language, ModelRegistry.InstalledModel model) {
+        String modelLanguage = normalize(model.getItem().getLang());
+        if (language.isEmpty() || modelLanguage.isEmpty()) {
+            return 0;
+        }
+        if (modelLanguage.equals(language)) {
+            return 2;
+        }
+        return getPrimary(modelLanguage).equals(getPrimary(language)) ? 1 : 0;
+    }
+
+    static String normalize(String languageTag) {
+        if (languageTag == null) {
+            return "";
+        }
+        String tag = languageTag.toLowerCase(Locale.ROOT).replace('_', '-');
+        // Locale.toString() appends the script, "zh_CN_#Hans".
+        int script = tag.indexOf("-#");
+        if (script >= 0) {
+            tag = tag.substring(0, script);
+        }
+        String primary = getPrimary(tag);
+        String code = MODEL_LIST_CODES.get(primary);
+        return code == null ? tag : code + tag.substring(primary.length());
+    }
+
+    private static String getPrimary(String tag) {
+        int separator = tag.indexOf('-');
+        return separator < 0 ? tag : tag.substring(0, separator);
+    }
+}
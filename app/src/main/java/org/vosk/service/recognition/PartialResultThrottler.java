@@ -0,0 +1,90 @@
+package org.vosk.service.recognition;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Sits between the recognizer and the binder callback. Identical consecutive partials are
+ * dropped and bursts are coalesced so that at most one partial is emitted per interval; the
+ * latest pending partial is always flushed before a final result.
+ */
+public class PartialResultThrottler {
+    private final static String TAG = PartialResultThrottler.class.getSimpleName();
+
+    public static final long DEFAULT_INTERVAL_MS = 100;
+
+    public interface Emitter {
+        void emitPartial(String text);
+    }
+
+    private final Handler handler;
+    private final Emitter emitter;
+    private final Runnable flushRunnable = this::flush;
+
+    private long intervalMs = DEFAULT_INTERVAL_MS;
+    private long lastEmitTime;
+    private String lastText;
+    private String pendingText;
+    private boolean flushScheduled;
+
+    private int received;
+    private int emitted;
+
+    public PartialResultThrottler(Handler handler, Emitter emitter) {
+        this.handler = handler;
+        this.emitter = emitter;
+    }
+
+    public void setInterval(long intervalMs) {
+        this.intervalMs = Math.max(0, intervalMs);
+    }
+
+    public void onPartial(HypothesisParser parser) {
+        received++;
+        if (parser.textEquals(lastText)) {
+            return;
+        }
+        lastText = parser.getText();
+        long now = SystemClock.uptimeMillis();
+        if (now - lastEmitTime >= intervalMs) {
+            pendingText = lastText;
+            flush();
+        } else {
+            pendingText = lastText;
+            if (!flushScheduled) {
+                flushScheduled = true;
+                handler.postAtTime(flushRunnable, lastEmitTime + intervalMs);
+            }
+        }
+    }
+
+    public void flush() {
+        if (flushScheduled) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+        if (pendingText != null) {
+            String text = pendingText;
+            pendingText = null;
+            lastEmitTime = SystemClock.uptimeMillis();
+            emitted++;
+            emitter.emitPartial(text);
+        }
+    }
+
+    public void reset() {
+        if (received > 0) {
+            Log.d(TAG, "Partials received " + received + ", emitted " + emitted);
+        }
+        if (flushScheduled) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+        }
+        pendingText = null;
+        lastText = null;
+        lastEmitTime = 0;
+        received = 0;
+        emitted = 0;
+    }
+}
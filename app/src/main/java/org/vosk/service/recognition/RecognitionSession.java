@@ -0,0 +1,633 @@
+package org.vosk.service.recognition;
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.speech.RecognitionService;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+import org.vosk.Model;
+import org.vosk.Recognizer;
+import org.vosk.service.audio.AudioPipeline;
+import org.vosk.service.audio.VoiceActivityDetector;
+import org.vosk.service.utils.ResultsConstants;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import io.reactivex.android.schedulers.AndroidSchedulers;
+
+/**
+ * One client of the recognition service. It owns a recognizer on the shared model and listens
+ * to the shared audio pipeline, results go to the callback of the client that started it.
+ * Given several models it listens with all of them at first and keeps the one most confident
+ * about the first second of speech. Only used on the main thread.
+ */
+public class RecognitionSession {
+    private final static String TAG = RecognitionSession.class.getSimpleName();
+
+    // Leading silence is skipped, this is the first second of speech.
+    public static final long DETECTION_MILLIS = 1000;
+
+    public interface Host {
+        /**
+         * The pipeline to listen to, the one already capturing when there is one.
+         */
+        AudioPipeline getAudioPipeline(SessionController session) throws IOException;
+
+        RecognizerPool getRecognizerPool();
+
+        void onSessionFinished(RecognitionSession session);
+    }
+
+    private final Host host;
+    private final RecognitionService.Callback callback;
+    private final SessionController session;
+    private final HypothesisParser hypothesisParser = new HypothesisParser();
+    private final PartialResultThrottler partialResultThrottler;
+    // Listening models, down to the selected one once detection is over.
+    private final List<Candidate> candidates = new ArrayList<>();
+    private Candidate selected;
+    private IntConsumer onModelSelected;
+    // Models received from the cache and not released yet.
+    private final List<Model> models = new ArrayList<>();
+    private AudioPipeline audioPipeline;
+    private boolean finished;
+
+    public RecognitionSession(Host host, Intent intent, RecognitionService.Callback callback) {
+        this.host = host;
+        this.callback = callback;
+        this.session = new SessionController(intent);
+        this.partialResultThrottler = new PartialResultThrottler(new Handler(Looper.getMainLooper()),
+                text -> results(createResultsBundle(text), false));
+        partialResultThrottler.setInterval(session.getPartialResultsIntervalMillis());
+    }
+
+    public RecognitionService.Callback getCallback() {
+        return callback;
+    }
+
+    public SessionController getController() {
+        return session;
+    }
+
+    /**
+     * Loads the models and starts listening. The index of the model kept is reported once
+     * known, right away when there is only one.
+     */
+    public void start(List<File> modelFiles, IntConsumer onModelSelected) {
+        Log.v(TAG, "start");
+        this.onModelSelected = onModelSelected;
+        //noinspection ResultOfMethodCallIgnored
+        ModelCache.getInstance().get(modelFiles)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::startSpeech, error -> {
+                    Log.e(TAG, "Model load failed", error);
+                    error(SpeechRecognizer.ERROR_CLIENT);
+                });
+    }
+
+    private void startSpeech(List<Model> models) {
+        Log.v(TAG, "startSpeech");
+        this.models.addAll(models);
+        if (finished) {
+            // Closed while loading, the load is not disposed so the models are given back here.
+            releaseModels();
+            return;
+        }
+        if (!setupRecognizers(models)) {
+            return;
+        }
+        readyForSpeech(new Bundle());
+        if (!session.isVadEnabled()) {
+            beginningOfSpeech();
+        }
+    }
+
+    private boolean setupRecognizers(List<Model> models) {
+        Log.v(TAG, "setupRecognizers");
+        try {
+            audioPipeline = host.getAudioPipeline(session);
+            // A capture shared with other clients keeps its own sample rate.
+            int sampleRate = audioPipeline.getSampleRate();
+            session.onListeningStarted();
+            for (int i = 0; i < models.size(); i++) {
+                RecognizerPool.Key key = session.getRecognizerKey(models.get(i), sampleRate);
+                Candidate candidate = new Candidate(i, models.get(i), key, host.getRecognizerPool().acquire(key));
+                candidates.add(candidate);
+                session.configure(candidate.recognizer);
+                if (models.size() > 1) {
+                    // Only results without alternatives carry the word confidences candidates are
+                    // scored with, the client's settings are back once a model is selected.
+                    candidate.recognizer.setMaxAlternatives(0);
+                }
+
+                VoiceActivityDetector vad = null;
+                if (session.isVadEnabled()) {
+                    vad = new VoiceActivityDetector(sampleRate);
+                    session.configure(vad);
+                }
+                audioPipeline.startListening(candidate.recognizer, candidate, session.isForwardBuffers(),
+                        session.isPartialResults(), vad, session.isContinuous());
+            }
+            if (candidates.size() == 1) {
+                select(candidates.get(0));
+            } else {
+                for (Candidate candidate : candidates) {
+                    audioPipeline.setCheckpoint(candidate, DETECTION_MILLIS);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, e.getMessage());
+            error(SpeechRecognizer.ERROR_AUDIO);
+            return false;
+        }
+    }
+
+    private void onCandidateScored() {
+        if (finished || selected != null) {
+            return;
+        }
+        Candidate best = null;
+        for (Candidate candidate : candidates) {
+            if (!candidate.scored) {
+                return;
+            }
+            // Ties go to the earlier, preferred model.
+            if (best == null || candidate.getScore() > best.getScore()) {
+                best = candidate;
+            }
+        }
+        if (best != null) {
+            select(best);
+        }
+    }
+
+    private void select(Candidate candidate) {
+        Log.i(TAG, "Selected model " + candidate.index + " of " + candidates.size() + ", score " + candidate.getScore());
+        selected = candidate;
+        if (candidates.size() > 1) {
+            audioPipeline.configure(candidate, session::configure);
+        }
+        for (Candidate other : candidates) {
+            if (other != candidate) {
+                detach(other);
+            }
+        }
+        candidates.clear();
+        candidates.add(candidate);
+        onModelSelected.accept(candidate.index);
+
+        // What the model recognized while the others were still listening.
+        for (int i = 0; i < candidate.results.size() && !finished; i++) {
+            String hypothesis = candidate.results.get(i);
+            if (i == candidate.checkpoint && !session.isContinuous()) {
+                // Cut at the checkpoint, the utterance goes on.
+                if (hypothesisParser.parse(hypothesis)) {
+                    session.addEarlySegment(hypothesisParser.getText());
+                }
+            } else {
+                onResult(hypothesis);
+            }
+        }
+        if (candidate.finalResult != null && !finished) {
+            onFinalResult(candidate.finalResult);
+        }
+    }
+
+    private void detach(Candidate candidate) {
+        if (audioPipeline != null) {
+            audioPipeline.cancel(candidate);
+        }
+        // Detached from the pipeline above, nothing feeds the recognizer anymore.
+        host.getRecognizerPool().release(candidate.key, candidate.recognizer);
+        if (models.remove(candidate.model)) {
+            ModelCache.getInstance().release(candidate.model);
+        }
+    }
+
+    private void releaseModels() {
+        for (Model model : models) {
+            ModelCache.getInstance().release(model);
+        }
+        models.clear();
+    }
+
+    /**
+     * Ends listening on the client's request. The audio captured so far is decoded first and
+     * the session ends from onFinalResult.
+     */
+    public void stop() {
+        Log.v(TAG, "stop");
+        if (finished) {
+            return;
+        }
+        boolean stopping = false;
+        for (Candidate candidate : candidates) {
+            // A candidate the pipeline no longer knows has finished on its own, at the end of
+            // speech, and its final result is still on the way.
+            stopping |= audioPipeline.stop(candidate) || !candidate.finalReceived;
+        }
+        if (stopping) {
+            return;
+        }
+        // Stopped before listening started, nothing was heard.
+        if (session.isContinuous()) {
+            endSegmentedSession();
+        } else {
+            error(SpeechRecognizer.ERROR_NO_MATCH);
+        }
+    }
+
+    /**
+     * Ends listening on the client's request, the client expects no more callbacks.
+     */
+    public void cancel() {
+        Log.v(TAG, "cancel");
+        finish();
+    }
+
+    /**
+     * Makes room for another client, this one is told the recognizer is busy.
+     */
+    public void preempt() {
+        Log.v(TAG, "preempt");
+        error(SpeechRecognizer.ERROR_RECOGNIZER_BUSY);
+    }
+
+    /**
+     * Releases everything without telling the client.
+     */
+    public void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        partialResultThrottler.reset();
+        for (Candidate candidate : candidates) {
+            detach(candidate);
+        }
+        candidates.clear();
+        releaseModels();
+    }
+
+    private void finish() {
+        if (!finished) {
+            close();
+            host.onSessionFinished(this);
+        }
+    }
+
+    private void readyForSpeech(Bundle bundle) {
+        Log.v(TAG, "readyForSpeech");
+        try {
+            callback.readyForSpeech(bundle);
+        } catch (RemoteException e) {
+            // empty
+        }
+    }
+
+    private void results(Bundle bundle, boolean isFinal) {
+        Log.v(TAG, "results");
+        if (finished) {
+            return;
+        }
+        try {
+            if (isFinal) {
+                partialResultThrottler.flush();
+                finish();
+                callback.results(bundle);
+            } else {
+                callback.partialResults(bundle);
+            }
+        } catch (RemoteException e) {
+            // empty
+        }
+    }
+
+    private Bundle createResultsBundle(String hypothesis) {
+        Log.v(TAG, "createResultsBundle");
+        ArrayList<String> hypotheses = new ArrayList<>();
+        hypotheses.add(hypothesis);
+        Bundle bundle = new Bundle();
+        bundle.putStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION, hypotheses);
+        return bundle;
+    }
+
+    /**
+     * Delivers a finished utterance of a continuous session. Clients on Android 13 and later get
+     * segment results, older ones a partial result flagged as segment, and the whole transcript
+     * as the final result once listening stops.
+     */
+    private void segmentResults(HypothesisParser parser) {
+        Log.v(TAG, "segmentResults");
+        if (parser.getText().isEmpty()) {
+            return;
+        }
+        // A pending partial belongs to the segment that just finished.
+        partialResultThrottler.reset();
+        Bundle bundle = createFinalResultsBundle(parser, false);
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                callback.segmentResults(bundle);
+            } else {
+                session.addEarlySegment(parser.getText());
+                bundle.putBoolean(ResultsConstants.SEGMENT, true);
+                callback.partialResults(bundle);
+            }
+        } catch (RemoteException e) {
+            // empty
+        }
+    }
+
+    private void endSegmentedSession() {
+        Log.v(TAG, "endSegmentedSession");
+        if (finished) {
+            return;
+        }
+        finish();
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                callback.endOfSegmentedSession();
+            } else {
+                callback.results(createResultsBundle(session.withEarlySegments("")));
+            }
+        } catch (RemoteException e) {
+            // empty
+        }
+    }
+
+    private Bundle createFinalResultsBundle(HypothesisParser parser, boolean withEarlySegments) {
+        Log.v(TAG, "createFinalResultsBundle");
+        int count = Math.min(parser.getAlternativeCount(), session.getMaxResults());
+        ArrayList<String> hypotheses = new ArrayList<>(count);
+        float[] confidences = new float[count];
+        for (int i = 0; i < count; i++) {
+            hypotheses.add(withEarlySegments ? session.withEarlySegments(parser.getAlternative(i)) : parser.getAlternative(i));
+            confidences[i] = parser.getAlternativeConfidence(i);
+        }
+
+        int wordCount = parser.getWordCount();
+        String[] words = new String[wordCount];
+        float[] startTimes = new float[wordCount];
+        float[] endTimes = new float[wordCount];
+        // Results with alternatives carry no word confidences, those are left out then.
+        float[] wordConfidences = parser.hasWordConfidences() ? new float[wordCount] : null;
+        for (int i = 0; i < wordCount; i++) {
+            words[i] = parser.getWord(i);
+            startTimes[i] = parser.getWordStart(i);
+            endTimes[i] = parser.getWordEnd(i);
+            if (wordConfidences != null) {
+                wordConfidences[i] = parser.getWordConfidence(i);
+            }
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION, hypotheses);
+        bundle.putFloatArray(SpeechRecognizer.CONFIDENCE_SCORES, confidences);
+        bundle.putStringArray(ResultsConstants.WORDS, words);
+        bundle.putFloatArray(ResultsConstants.WORD_START_TIMES, startTimes);
+        bundle.putFloatArray(ResultsConstants.WORD_END_TIMES, endTimes);
+        if (wordConfidences != null) {
+            bundle.putFloatArray(ResultsConstants.WORD_CONFIDENCES, wordConfidences);
+        }
+        return bundle;
+    }
+
+    private void beginningOfSpeech() {
+        Log.v(TAG, "beginningOfSpeech");
+        try {
+            callback.beginningOfSpeech();
+        } catch (RemoteException e) {
+            // empty
+        }
+    }
+
+    private void endOfSpeech() {
+        Log.v(TAG, "endOfSpeech");
+        try {
+            callback.endOfSpeech();
+        } catch (RemoteException e) {
+            // empty
+        }
+    }
+
+    public void error(int errorCode) {
+        Log.v(TAG, "error");
+        if (finished) {
+            return;
+        }
+        finish();
+        try {
+            callback.error(errorCode);
+        } catch (RemoteException e) {
+            // empty
+        }
+    }
+
+    private void onResult(String hypothesis) {
+        Log.v(TAG, "onResult");
+        if (hypothesis != null && !finished) {
+            Log.i(TAG, hypothesis);
+            if (hypothesisParser.parse(hypothesis)) {
+                if (session.isContinuous()) {
+                    segmentResults(hypothesisParser);
+                } else if (session.isBeforeMinimumLength()) {
+                    // The recognizer endpointed before the client's minimum length, keep going.
+                    session.addEarlySegment(hypothesisParser.getText());
+                } else {
+                    results(createFinalResultsBundle(hypothesisParser, true), true);
+                }
+            }
+        }
+    }
+
+    private void onFinalResult(String hypothesis) {
+        Log.v(TAG, "onFinalResult");
+        if (finished) {
+            return;
+        }
+        if (session.isContinuous()) {
+            if (hypothesis != null && hypothesisParser.parse(hypothesis)) {
+                segmentResults(hypothesisParser);
+            }
+            endSegmentedSession();
+            return;
+        }
+        if (hypothesis != null) {
+            Log.i(TAG, hypothesis);
+            if (hypothesisParser.parse(hypothesis)) {
+                results(createFinalResultsBundle(hypothesisParser, true), true);
+                return;
+            }
+        }
+        // Listening is over, the client must not be left waiting.
+        error(SpeechRecognizer.ERROR_NO_MATCH);
+    }
+
+    private void onPartialResult(String hypothesis) {
+        Log.v(TAG, "onPartialResult");
+        if (hypothesis != null && !finished) {
+            Log.i(TAG, hypothesis);
+            if (hypothesisParser.parse(hypothesis)) {
+                partialResultThrottler.onPartial(hypothesisParser);
+            }
+        }
+    }
+
+    private void onError(Exception e) {
+        Log.v(TAG, "onError");
+        Log.e(TAG, e.getMessage());
+        error(SpeechRecognizer.ERROR_CLIENT);
+    }
+
+    /**
+     * A model listening for the session. Until one is selected, results are kept to score the
+     * model and only the first one reports audio levels and speech events.
+     */
+    private class Candidate implements AudioPipeline.Listener {
+        final int index;
+        final Model model;
+        final RecognizerPool.Key key;
+        final Recognizer recognizer;
+        final List<String> results = new ArrayList<>();
+        int checkpoint = -1;
+        String finalResult;
+        boolean finalReceived;
+        boolean scored;
+        float confidenceSum;
+        int wordCount;
+
+        Candidate(int index, Model model, RecognizerPool.Key key, Recognizer recognizer) {
+            this.index = index;
+            this.model = model;
+            this.key = key;
+            this.recognizer = recognizer;
+        }
+
+        // Mean confidence of the words recognized so far.
+        float getScore() {
+            return wordCount > 0 ? confidenceSum / wordCount : 0;
+        }
+
+        // Only what was recognized up to the checkpoint counts.
+        private void addScore(String hypothesis) {
+            if (hypothesis != null && hypothesisParser.parse(hypothesis)) {
+                for (int i = 0; i < hypothesisParser.getWordCount(); i++) {
+                    float confidence = hypothesisParser.getWordConfidence(i);
+                    if (!Float.isNaN(confidence)) {
+                        confidenceSum += confidence;
+                        wordCount++;
+                    }
+                }
+            }
+        }
+
+        private boolean isSelected() {
+            return selected == this;
+        }
+
+        private boolean isReporting() {
+            return !finished && (selected == this || (selected == null && candidates.get(0) == this));
+        }
+
+        @Override
+        public void onPartialResult(String hypothesis) {
+            if (isSelected()) {
+                RecognitionSession.this.onPartialResult(hypothesis);
+            }
+        }
+
+        @Override
+        public void onResult(String hypothesis) {
+            if (isSelected()) {
+                RecognitionSession.this.onResult(hypothesis);
+            } else if (selected == null && hypothesis != null) {
+                results.add(hypothesis);
+                if (!scored) {
+                    addScore(hypothesis);
+                }
+            }
+        }
+
+        @Override
+        public void onCheckpoint(String hypothesis) {
+            if (selected == null && hypothesis != null) {
+                checkpoint = results.size();
+                results.add(hypothesis);
+                addScore(hypothesis);
+                scored = true;
+                onCandidateScored();
+            }
+        }
+
+        @Override
+        public void onFinalResult(String hypothesis) {
+            finalReceived = true;
+            if (isSelected()) {
+                RecognitionSession.this.onFinalResult(hypothesis);
+            } else if (selected == null) {
+                // Speech ended or listening stopped, possibly before the checkpoint.
+                finalResult = hypothesis;
+                if (!scored) {
+                    addScore(hypothesis);
+                    scored = true;
+                }
+                onCandidateScored();
+            }
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            if (selected == null || isSelected()) {
+                RecognitionSession.this.onError(exception);
+            }
+        }
+
+        @Override
+        public void onRmsChanged(float rmsDb) {
+            if (!isReporting()) {
+                return;
+            }
+            try {
+                callback.rmsChanged(rmsDb);
+            } catch (RemoteException e) {
+                // empty
+            }
+        }
+
+        @Override
+        public void onBufferReceived(byte[] buffer) {
+            if (!isReporting()) {
+                return;
+            }
+            try {
+                callback.bufferReceived(buffer);
+            } catch (RemoteException e) {
+                // empty
+            }
+        }
+
+        @Override
+        public void onBeginningOfSpeech() {
+            if (isReporting()) {
+                beginningOfSpeech();
+            }
+        }
+
+        @Override
+        public void onEndOfSpeech() {
+            if (isReporting()) {
+                endOfSpeech();
+            }
+        }
+    }
+}
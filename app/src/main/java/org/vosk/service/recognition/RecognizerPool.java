@@ -0,0 +1,211 @@
+package org.vosk.service.recognition;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.vosk.Model;
+import org.vosk.Recognizer;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Bounded pool of idle recognizers keyed by model, sample rate and grammar. Recognizers are
+ * reset before being handed out again, so no state leaks from a previous utterance.
+ */
+public class RecognizerPool {
+    private final static String TAG = RecognizerPool.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_IDLE_PER_KEY = 2;
+    public static final int DEFAULT_MAX_IDLE_TOTAL = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
+    private final int maxIdlePerKey;
+    private final int maxIdleTotal;
+    private final long idleTimeoutMs;
+
+    private final Map<Key, ArrayDeque<Idle>> idle = new HashMap<>();
+    private int idleCount;
+    private int hits;
+    private int misses;
+    private Disposable evictionTask;
+    private boolean closed;
+
+    public RecognizerPool() {
+        this(DEFAULT_MAX_IDLE_PER_KEY, DEFAULT_MAX_IDLE_TOTAL, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    public RecognizerPool(int maxIdlePerKey, int maxIdleTotal, long idleTimeoutMs) {
+        this.maxIdlePerKey = maxIdlePerKey;
+        this.maxIdleTotal = maxIdleTotal;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public Recognizer acquire(Key key) throws IOException {
+        synchronized (this) {
+            ArrayDeque<Idle> queue = idle.get(key);
+            if (queue != null && !queue.isEmpty()) {
+                Idle entry = queue.pop();
+                idleCount--;
+                hits++;
+                entry.recognizer.reset();
+                Log.d(TAG, "Reusing recognizer " + key + ", hits " + hits + ", misses " + misses);
+                return entry.recognizer;
+            }
+            misses++;
+            Log.i(TAG, "Creating recognizer " + key + ", hits " + hits + ", misses " + misses);
+        }
+        if (key.grammar != null) {
+            return new Recognizer(key.model, key.sampleRate, key.grammar.getJson());
+        }
+        return new Recognizer(key.model, key.sampleRate);
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    public void release(Key key, Recognizer recognizer) {
+        synchronized (this) {
+            if (!closed && idleCount < maxIdleTotal) {
+                ArrayDeque<Idle> queue = idle.get(key);
+                if (queue == null) {
+                    queue = new ArrayDeque<>(maxIdlePerKey);
+                    idle.put(key, queue);
+                }
+                if (queue.size() < maxIdlePerKey) {
+                    queue.push(new Idle(recognizer, SystemClock.elapsedRealtime()));
+                    idleCount++;
+                    scheduleEviction();
+                    return;
+                }
+            }
+        }
+        recognizer.close();
+    }
+
+    private void scheduleEviction() {
+        if (evictionTask == null) {
+            evictionTask = Schedulers.computation().schedulePeriodicallyDirect(this::evictIdle,
+                    idleTimeoutMs, idleTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void evictIdle() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<ArrayDeque<Idle>> queues = idle.values().iterator();
+        while (queues.hasNext()) {
+            ArrayDeque<Idle> queue = queues.next();
+            Iterator<Idle> entries = queue.iterator();
+            while (entries.hasNext()) {
+                Idle entry = entries.next();
+                if (now - entry.since >= idleTimeoutMs) {
+                    entries.remove();
+                    idleCount--;
+                    entry.recognizer.close();
+                }
+            }
+            if (queue.isEmpty()) {
+                queues.remove();
+            }
+        }
+        if (idleCount == 0 && evictionTask != null) {
+            evictionTask.dispose();
+            evictionTask = null;
+        }
+    }
+
+    /**
+     * Closes the idle recognizers of a model, they would keep its native memory alive.
+     */
+    public synchronized void purge(Model model) {
+        Iterator<Map.Entry<Key, ArrayDeque<Idle>>> queues = idle.entrySet().iterator();
+        while (queues.hasNext()) {
+            Map.Entry<Key, ArrayDeque<Idle>> queue = queues.next();
+            if (queue.getKey().model == model) {
+                for (Idle entry : queue.getValue()) {
+                    entry.recognizer.close();
+                }
+                idleCount -= queue.getValue().size();
+                queues.remove();
+            }
+        }
+    }
+
+    public synchronized void close() {
+        closed = true;
+        if (evictionTask != null) {
+            evictionTask.dispose();
+            evictionTask = null;
+        }
+        for (ArrayDeque<Idle> queue : idle.values()) {
+            for (Idle entry : queue) {
+                entry.recognizer.close();
+            }
+        }
+        idle.clear();
+        idleCount = 0;
+    }
+
+    private static class Idle {
+        final Recognizer recognizer;
+        final long since;
+
+        Idle(Recognizer recognizer, long since) {
+            this.recognizer = recognizer;
+            this.since = since;
+        }
+    }
+
+    public static class Key {
+        final Model model;
+        final float sampleRate;
+        final GrammarCache.Grammar grammar;
+
+        public Key(Model model, float sampleRate, GrammarCache.Grammar grammar) {
+            this.model = model;
+            this.sampleRate = sampleRate;
+            this.grammar = grammar;
+        }
+
+        public float getSampleRate() {
+            return sampleRate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return model == key.model
+                    && Float.compare(key.sampleRate, sampleRate) == 0
+                    && Objects.equals(getGrammarHash(), key.getGrammarHash());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(model), sampleRate, getGrammarHash());
+        }
+
+        private String getGrammarHash() {
+            return grammar == null ? null : grammar.getHash();
+        }
+
+        @Override
+        public String toString() {
+            return "(" + sampleRate + ", " + (grammar == null ? "free form" : "grammar " + grammar.getHash()) + ")";
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.vosk.service.recognition;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.speech.RecognizerIntent;
+
+import org.vosk.Model;
+import org.vosk.Recognizer;
+import org.vosk.service.audio.AudioPipeline;
+import org.vosk.service.audio.VoiceActivityDetector;
+import org.vosk.service.utils.IntentConstants;
+
+import java.util.List;
+
+/**
+ * Reads the extras of a recognition intent once per session and applies them to the recognizer
+ * and audio pipeline, so that clients only pay for the output they asked for.
+ */
+public class SessionController {
+
+    public static final float DEFAULT_SAMPLE_RATE = 16000.0f;
+    public static final float MIN_SAMPLE_RATE = 8000.0f;
+    public static final float MAX_SAMPLE_RATE = 48000.0f;
+    // Silence closing a segment of a continuous session, shorter than the end of a single utterance.
+    public static final long DEFAULT_SEGMENT_SILENCE_MILLIS = 500;
+    // Limits of the audio buffering clients may ask for, the ring holds at least two frames.
+    public static final int MIN_FRAME_MILLIS = 10;
+    public static final int MAX_FRAME_MILLIS = 100;
+    public static final int MAX_RING_MILLIS = 10000;
+
+    private final float sampleRate;
+    private final GrammarCache.Grammar grammar;
+    private final int frameMillis;
+    private final int ringMillis;
+    private final boolean forwardBuffers;
+    private final boolean vadEnabled;
+    private final boolean continuous;
+    private final long completeSilenceMillis;
+    private final long minimumLengthMillis;
+    private final int maxResults;
+    private final boolean partialResults;
+    private final long partialResultsIntervalMillis;
+    private final String language;
+    private final boolean languageDetection;
+    private final List<String> detectionLanguages;
+
+    private long startTime;
+    private final StringBuilder earlySegments = new StringBuilder();
+
+    public SessionController(Intent intent) {
+        float requestedRate = intent.getFloatExtra(IntentConstants.EXTRA_SAMPLE_RATE, DEFAULT_SAMPLE_RATE);
+        // Rates the device does not record at fail when the pipeline is created.
+        sampleRate = requestedRate >= MIN_SAMPLE_RATE && requestedRate <= MAX_SAMPLE_RATE ? requestedRate : DEFAULT_SAMPLE_RATE;
+        grammar = getGrammar(intent);
+        frameMillis = clamp(intent.getIntExtra(IntentConstants.EXTRA_AUDIO_FRAME_MILLIS, AudioPipeline.DEFAULT_FRAME_MILLIS),
+                MIN_FRAME_MILLIS, MAX_FRAME_MILLIS);
+        ringMillis = clamp(intent.getIntExtra(IntentConstants.EXTRA_AUDIO_BUFFER_MILLIS, AudioPipeline.DEFAULT_RING_MILLIS),
+                2 * frameMillis, MAX_RING_MILLIS);
+        forwardBuffers = intent.getBooleanExtra(IntentConstants.EXTRA_BUFFER_RECEIVED, false);
+        vadEnabled = intent.getBooleanExtra(IntentConstants.EXTRA_VAD_ENABLED, true);
+        continuous = intent.getBooleanExtra(IntentConstants.EXTRA_CONTINUOUS, false)
+                || intent.hasExtra(RecognizerIntent.EXTRA_SEGMENTED_SESSION);
+        completeSilenceMillis = getMillisExtra(intent, RecognizerIntent.EXTRA_SPEECH_INPUT_COMPLETE_SILENCE_LENGTH_MILLIS,
+                continuous ? DEFAULT_SEGMENT_SILENCE_MILLIS : VoiceActivityDetector.DEFAULT_COMPLETE_SILENCE_MILLIS);
+        minimumLengthMillis = getMillisExtra(intent, RecognizerIntent.EXTRA_SPEECH_INPUT_MINIMUM_LENGTH_MILLIS, 0);
+        maxResults = Math.max(1, intent.getIntExtra(RecognizerIntent.EXTRA_MAX_RESULTS, 1));
+        partialResults = intent.getBooleanExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, false);
+        partialResultsIntervalMillis = getMillisExtra(intent, IntentConstants.EXTRA_PARTIAL_RESULTS_INTERVAL_MILLIS,
+                PartialResultThrottler.DEFAULT_INTERVAL_MS);
+        language = intent.getStringExtra(RecognizerIntent.EXTRA_LANGUAGE);
+        languageDetection = intent.getBooleanExtra(IntentConstants.EXTRA_ENABLE_LANGUAGE_DETECTION, false);
+        detectionLanguages = intent.getStringArrayListExtra(IntentConstants.EXTRA_LANGUAGE_DETECTION_ALLOWED_LANGUAGES);
+    }
+
+    /**
+     * A grammar can be given as ready made Vosk grammar JSON, or as a phrase list either through
+     * our own extra or the platform biasing strings. Any of them restricts recognition to it.
+     */
+    private static GrammarCache.Grammar getGrammar(Intent intent) {
+        String json = intent.getStringExtra(IntentConstants.EXTRA_GRAMMAR);
+        if (json != null) {
+            return GrammarCache.getInstance().fromJson(json);
+        }
+        List<String> phrases = intent.getStringArrayListExtra(IntentConstants.EXTRA_GRAMMAR_PHRASES);
+        if (phrases == null) {
+            phrases = intent.getStringArrayListExtra(RecognizerIntent.EXTRA_BIASING_STRINGS);
+        }
+        if (phrases != null && !phrases.isEmpty()) {
+            return GrammarCache.getInstance().fromPhrases(phrases);
+        }
+        return null;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // Clients pass these extras both as int and as long.
+    private static long getMillisExtra(Intent intent, String name, long defaultValue) {
+        Bundle extras = intent.getExtras();
+        Object value = extras == null ? null : extras.get(name);
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+    }
+
+    /**
+     * Key for a recognizer at the sample rate of the capture, which a session joining a running
+     * one does not choose.
+     */
+    public RecognizerPool.Key getRecognizerKey(Model model, float sampleRate) {
+        return new RecognizerPool.Key(model, sampleRate, grammar);
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameMillis() {
+        return frameMillis;
+    }
+
+    public int getRingMillis() {
+        return ringMillis;
+    }
+
+    public boolean isForwardBuffers() {
+        return forwardBuffers;
+    }
+
+    public boolean isVadEnabled() {
+        return vadEnabled;
+    }
+
+    /**
+     * Continuous sessions keep capturing across utterances and deliver each one as a segment
+     * until the client stops listening.
+     */
+    public boolean isContinuous() {
+        return continuous;
+    }
+
+    public boolean isPartialResults() {
+        return partialResults;
+    }
+
+    public long getPartialResultsIntervalMillis() {
+        return partialResultsIntervalMillis;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Language the client asked for as a BCP 47 tag, null if it did not tell.
+     */
+    public String getLanguage() {
+        return language;
+    }
+
+    public boolean isLanguageDetection() {
+        return languageDetection;
+    }
+
+    /**
+     * Languages the client expects when detection is enabled, null for any installed one.
+     */
+    public List<String> getDetectionLanguages() {
+        return detectionLanguages;
+    }
+
+    public void configure(Recognizer recognizer) {
+        // Zero keeps the plain single-result output of the recognizer.
+        recognizer.setMaxAlternatives(maxResults > 1 ? maxResults : 0);
+        recognizer.setWords(true);
+    }
+
+    public void configure(VoiceActivityDetector vad) {
+        vad.setCompleteSilenceMillis(completeSilenceMillis);
+        vad.setMinimumLengthMillis(minimumLengthMillis);
+    }
+
+    public void onListeningStarted() {
+        startTime = SystemClock.elapsedRealtime();
+        earlySegments.setLength(0);
+    }
+
+    /**
+     * True while the minimum input length requested by the client has not been captured yet,
+     * results arriving in that window are held back as early segments.
+     */
+    public boolean isBeforeMinimumLength() {
+        return !continuous && SystemClock.elapsedRealtime() - startTime < minimumLengthMillis;
+    }
+
+    public void addEarlySegment(String text) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if (earlySegments.length() > 0) {
+            earlySegments.append(' ');
+        }
+        earlySegments.append(text);
+    }
+
+    public String withEarlySegments(String text) {
+        if (earlySegments.length() == 0) {
+            return text;
+        }
+        if (text.isEmpty()) {
+            return earlySegments.toString();
+        }
+        return earlySegments + " " + text;
+    }
+}
@@ -0,0 +1,111 @@
+package org.vosk.service.recognition;
+
+import android.os.RemoteException;
+import android.speech.RecognitionService;
+import android.speech.SpeechRecognizer;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sessions of the clients currently listening, by callback, and the policy deciding what
+ * happens when another client starts while one is active. Only used on the main thread.
+ */
+public class SessionManager {
+    private final static String TAG = SessionManager.class.getSimpleName();
+
+    // Every session decodes every frame, more than this and decoding falls behind the capture.
+    public static final int MAX_FAN_OUT_SESSIONS = 4;
+
+    public enum Policy {
+        // The new client gets a busy error.
+        REJECT,
+        // The active clients get a busy error and the new one takes over.
+        PREEMPT,
+        // All clients listen to the same capture, each with a recognizer of its own.
+        FAN_OUT;
+
+        public static Policy fromName(String name) {
+            for (Policy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            return REJECT;
+        }
+    }
+
+    private final Map<RecognitionService.Callback, RecognitionSession> sessions = new LinkedHashMap<>();
+    private Policy policy = Policy.REJECT;
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public int getMaxSessions() {
+        return policy == Policy.FAN_OUT ? MAX_FAN_OUT_SESSIONS : 1;
+    }
+
+    public RecognitionSession get(RecognitionService.Callback callback) {
+        return sessions.get(callback);
+    }
+
+    public boolean isEmpty() {
+        return sessions.isEmpty();
+    }
+
+    /**
+     * Applies the policy to a client about to start. Returns false when it was turned away, it
+     * has been told so through its callback then.
+     */
+    public boolean admit(RecognitionService.Callback callback) {
+        if (sessions.isEmpty()) {
+            return true;
+        }
+        switch (policy) {
+            case PREEMPT:
+                Log.i(TAG, "Preempting " + sessions.size() + " sessions");
+                for (RecognitionSession session : new ArrayList<>(sessions.values())) {
+                    session.preempt();
+                }
+                return true;
+            case FAN_OUT:
+                if (sessions.size() < MAX_FAN_OUT_SESSIONS) {
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        Log.i(TAG, "Rejecting session, " + sessions.size() + " active");
+        try {
+            callback.error(SpeechRecognizer.ERROR_RECOGNIZER_BUSY);
+        } catch (RemoteException e) {
+            // empty
+        }
+        return false;
+    }
+
+    public void add(RecognitionSession session) {
+        sessions.put(session.getCallback(), session);
+    }
+
+    public void remove(RecognitionSession session) {
+        if (sessions.get(session.getCallback()) == session) {
+            sessions.remove(session.getCallback());
+        }
+    }
+
+    public void closeAll() {
+        for (RecognitionSession session : sessions.values()) {
+            session.close();
+        }
+        sessions.clear();
+    }
+}
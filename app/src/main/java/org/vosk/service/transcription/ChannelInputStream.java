@@ -0,0 +1,41 @@
+package org.vosk.service.transcription;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream over a byte range of a file using positional reads, so several of them can read the
+ * same channel at once.
+ */
+class ChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    ChannelInputStream(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (position >= end) {
+            return -1;
+        }
+        int count = (int) Math.min(length, end - position);
+        int read = channel.read(ByteBuffer.wrap(buffer, offset, count), position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+}
@@ -0,0 +1,274 @@
+package org.vosk.service.transcription;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.vosk.Model;
+import org.vosk.Recognizer;
+import org.vosk.service.recognition.HypothesisParser;
+import org.vosk.service.recognition.ModelCache;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Decodes long recordings on several cores. The audio is cut into chunks at pauses, the chunks
+ * are decoded concurrently by a fixed set of recognizers sharing one model, and their segments
+ * are delivered in audio order with times relative to the start of the recording.
+ */
+public class ParallelTranscriber {
+    private final static String TAG = ParallelTranscriber.class.getSimpleName();
+
+    // Half a second at 16 kHz, large enough to keep the per call overhead of the recognizer small.
+    private static final int READ_SAMPLES = 8192;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    public interface Listener {
+        void onSegment(Segment segment);
+    }
+
+    public static class Stats {
+        public final long audioMillis;
+        public final long decodeMillis;
+        public final int chunks;
+        public final int threads;
+
+        Stats(long audioMillis, long decodeMillis, int chunks, int threads) {
+            this.audioMillis = audioMillis;
+            this.decodeMillis = decodeMillis;
+            this.chunks = chunks;
+            this.threads = threads;
+        }
+
+        public float getRealTimeFactor() {
+            return audioMillis > 0 ? (float) decodeMillis / audioMillis : 0;
+        }
+
+        @Override
+        public String toString() {
+            return audioMillis + " ms in " + decodeMillis + " ms, " + chunks + " chunks on " + threads
+                    + " threads, RTF " + getRealTimeFactor();
+        }
+    }
+
+    /**
+     * A recognizer and the audio it has seen. Its word times count from its creation, the samples
+     * fed so far turn them into chunk times.
+     */
+    private static class Slot {
+        final Recognizer recognizer;
+        long samplesFed;
+
+        Slot(Recognizer recognizer) {
+            this.recognizer = recognizer;
+        }
+    }
+
+    private final Model model;
+    private final int sampleRate;
+    private final int threads;
+    private final BlockingQueue<Slot> slots;
+    private final ExecutorService executor;
+    // Jobs using the transcriber, once retired it is closed when the last one is done.
+    private int users;
+    private boolean retired;
+    private boolean closed;
+
+    /**
+     * The model must be one received from the cache, the transcriber holds a reference on it
+     * until closed.
+     */
+    public ParallelTranscriber(Model model, int sampleRate, int threads) throws IOException {
+        this.model = model;
+        this.sampleRate = sampleRate;
+        this.threads = threads;
+        this.slots = new ArrayBlockingQueue<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Recognizer recognizer = new Recognizer(model, sampleRate);
+            recognizer.setMaxAlternatives(0);
+            recognizer.setWords(true);
+            slots.add(new Slot(recognizer));
+        }
+        this.executor = Executors.newFixedThreadPool(threads);
+        ModelCache.getInstance().retain(model);
+    }
+
+    public boolean matches(Model model, int sampleRate) {
+        return this.model == model && this.sampleRate == sampleRate;
+    }
+
+    public synchronized void acquire() {
+        users++;
+    }
+
+    public synchronized void release() {
+        users--;
+        closeIfUnused();
+    }
+
+    /**
+     * Closes the transcriber right away when idle, otherwise once the jobs using it release it.
+     */
+    public synchronized void retire() {
+        retired = true;
+        closeIfUnused();
+    }
+
+    /**
+     * Transcribes samples of a seekable file, from dataOffset on and dataLength bytes long.
+     */
+    public Stats transcribe(FileChannel channel, long dataOffset, long dataLength, int channels,
+                            BooleanSupplier cancelled, Listener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        long end = dataLength == Long.MAX_VALUE ? channel.size() : Math.min(channel.size(), dataOffset + dataLength);
+        int frameBytes = 2 * channels;
+
+        List<long[]> chunks = findChunks(channel, dataOffset, end, channels);
+        Log.d(TAG, "Split into " + chunks.size() + " chunks in " + (SystemClock.elapsedRealtime() - start) + " ms");
+
+        // Set once the caller stops waiting, the chunks left are skipped.
+        AtomicBoolean done = new AtomicBoolean();
+        BooleanSupplier stopped = () -> done.get() || cancelled.getAsBoolean();
+        List<Future<List<Segment>>> results = new ArrayList<>(chunks.size());
+        for (long[] chunk : chunks) {
+            results.add(executor.submit(() -> {
+                InputStream input = new ChannelInputStream(channel, dataOffset + chunk[0] * frameBytes, dataOffset + chunk[1] * frameBytes);
+                return decodeChunk(WavReader.raw(input, sampleRate, channels), chunk[0], stopped);
+            }));
+        }
+        long samples = 0;
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                // Earlier chunks are delivered as soon as they are done, while later ones decode.
+                for (Segment segment : results.get(i).get()) {
+                    listener.onSegment(segment);
+                }
+                samples = chunks.get(i)[1];
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            done.set(true);
+            awaitChunks(results);
+        }
+        return log(new Stats(samples * 1000 / sampleRate, SystemClock.elapsedRealtime() - start, chunks.size(), threads));
+    }
+
+    /**
+     * Transcribes a stream that cannot be read twice, as a single chunk.
+     */
+    public Stats transcribe(WavReader reader, BooleanSupplier cancelled, Listener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        List<Segment> segments = decodeChunk(reader, 0, cancelled);
+        for (Segment segment : segments) {
+            listener.onSegment(segment);
+        }
+        return log(new Stats(reader.getSamplesRead() * 1000 / sampleRate, SystemClock.elapsedRealtime() - start, 1, 1));
+    }
+
+    // No chunk holds a recognizer or reads the channel anymore once this returns.
+    private static void awaitChunks(List<Future<List<Segment>>> results) {
+        boolean interrupted = false;
+        for (Future<List<Segment>> result : results) {
+            while (true) {
+                try {
+                    result.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // Chunks stop at their next read, this does not wait long.
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Stats log(Stats stats) {
+        Log.i(TAG, "Transcribed " + stats);
+        return stats;
+    }
+
+    private List<long[]> findChunks(FileChannel channel, long start, long end, int channels) throws IOException {
+        SilenceSplitter splitter = new SilenceSplitter(sampleRate);
+        try (InputStream input = new BufferedInputStream(new ChannelInputStream(channel, start, end), READ_BUFFER_SIZE)) {
+            WavReader reader = WavReader.raw(input, sampleRate, channels);
+            short[] frame = new short[SilenceSplitter.getFrameSize(sampleRate)];
+            int count;
+            while ((count = reader.read(frame)) > 0) {
+                splitter.process(frame, count);
+            }
+        }
+        return splitter.finish();
+    }
+
+    private List<Segment> decodeChunk(WavReader reader, long firstSample, BooleanSupplier cancelled) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        if (cancelled.getAsBoolean()) {
+            return segments;
+        }
+        Slot slot;
+        try {
+            slot = slots.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return segments;
+        }
+        try {
+            float offset = (float) (firstSample - slot.samplesFed) / sampleRate;
+            HypothesisParser parser = new HypothesisParser();
+            short[] buffer = new short[READ_SAMPLES];
+            int count;
+            while (!cancelled.getAsBoolean() && (count = reader.read(buffer)) > 0) {
+                slot.samplesFed += count;
+                if (slot.recognizer.acceptWaveForm(buffer, count)) {
+                    addSegment(segments, parser, slot.recognizer.getResult(), offset);
+                }
+            }
+            addSegment(segments, parser, slot.recognizer.getFinalResult(), offset);
+        } finally {
+            slots.add(slot);
+        }
+        return segments;
+    }
+
+    private static void addSegment(List<Segment> segments, HypothesisParser parser, String hypothesis, float offset) {
+        if (parser.parse(hypothesis)) {
+            Segment segment = Segment.from(parser, offset);
+            if (segment != null) {
+                segments.add(segment);
+            }
+        }
+    }
+
+    private void closeIfUnused() {
+        if (retired && users == 0 && !closed) {
+            closed = true;
+            executor.shutdown();
+            // No job is running, every recognizer is back in the queue.
+            Slot slot;
+            while ((slot = slots.poll()) != null) {
+                slot.recognizer.close();
+            }
+            ModelCache.getInstance().release(model);
+        }
+    }
+}
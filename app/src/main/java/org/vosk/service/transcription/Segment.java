@@ -0,0 +1,74 @@
+package org.vosk.service.transcription;
+
+import android.os.Bundle;
+
+import org.vosk.service.recognition.HypothesisParser;
+import org.vosk.service.utils.ResultsConstants;
+import org.vosk.service.utils.TranscriptionConstants;
+
+/**
+ * One recognized utterance of a transcription, with times in seconds from the start of the audio.
+ */
+public class Segment {
+    final String text;
+    final String[] words;
+    final float[] startTimes;
+    final float[] endTimes;
+    // Null when the recognizer did not report them.
+    final float[] confidences;
+
+    private Segment(String text, int wordCount, boolean hasConfidences) {
+        this.text = text;
+        this.words = new String[wordCount];
+        this.startTimes = new float[wordCount];
+        this.endTimes = new float[wordCount];
+        this.confidences = hasConfidences ? new float[wordCount] : null;
+    }
+
+    /**
+     * Copies the parsed result, moving its word times by the given offset. Returns null if the
+     * result has no text.
+     */
+    public static Segment from(HypothesisParser parser, float offsetSeconds) {
+        if (!parser.hasText()) {
+            return null;
+        }
+        int wordCount = parser.getWordCount();
+        Segment segment = new Segment(parser.getText(), wordCount, parser.hasWordConfidences());
+        for (int i = 0; i < wordCount; i++) {
+            segment.words[i] = parser.getWord(i);
+            segment.startTimes[i] = parser.getWordStart(i) + offsetSeconds;
+            segment.endTimes[i] = parser.getWordEnd(i) + offsetSeconds;
+            if (segment.confidences != null) {
+                segment.confidences[i] = parser.getWordConfidence(i);
+            }
+        }
+        return segment;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public float getStart() {
+        return words.length > 0 ? startTimes[0] : 0;
+    }
+
+    public float getEnd() {
+        return words.length > 0 ? endTimes[words.length - 1] : 0;
+    }
+
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putString(TranscriptionConstants.SEGMENT_TEXT, text);
+        bundle.putFloat(TranscriptionConstants.SEGMENT_START, getStart());
+        bundle.putFloat(TranscriptionConstants.SEGMENT_END, getEnd());
+        bundle.putStringArray(ResultsConstants.WORDS, words);
+        bundle.putFloatArray(ResultsConstants.WORD_START_TIMES, startTimes);
+        bundle.putFloatArray(ResultsConstants.WORD_END_TIMES, endTimes);
+        if (confidences != null) {
+            bundle.putFloatArray(ResultsConstants.WORD_CONFIDENCES, confidences);
+        }
+        return bundle;
+    }
+}
@@ -0,0 +1,92 @@
+package org.vosk.service.transcription;
+
+import org.vosk.service.audio.VoiceActivityDetector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the points where long audio can be cut into chunks that decode independently. A chunk
+ * ends in the first pause after its minimum length, or at its quietest frame if the speaker
+ * never pauses before the maximum length.
+ */
+class SilenceSplitter {
+
+    static final int FRAME_MILLIS = 100;
+    private static final long MIN_CHUNK_MILLIS = 15000;
+    private static final long MAX_CHUNK_MILLIS = 45000;
+    private static final long MIN_SILENCE_MILLIS = 300;
+
+    private final VoiceActivityDetector vad;
+    private final long minChunk;
+    private final long maxChunk;
+    private final long minSilence;
+    private final List<long[]> chunks = new ArrayList<>();
+
+    private long position;
+    private long chunkStart;
+    private long silenceStart = -1;
+    private long quietestPosition;
+    private double quietestEnergy = Double.MAX_VALUE;
+
+    SilenceSplitter(int sampleRate) {
+        vad = new VoiceActivityDetector(sampleRate);
+        minChunk = sampleRate * MIN_CHUNK_MILLIS / 1000;
+        maxChunk = sampleRate * MAX_CHUNK_MILLIS / 1000;
+        minSilence = sampleRate * MIN_SILENCE_MILLIS / 1000;
+    }
+
+    static int getFrameSize(int sampleRate) {
+        return sampleRate * FRAME_MILLIS / 1000;
+    }
+
+    void process(short[] frame, int length) {
+        boolean speech = vad.process(frame, length);
+        long frameEnd = position + length;
+        if (speech) {
+            silenceStart = -1;
+        } else if (silenceStart < 0) {
+            silenceStart = position;
+        }
+
+        if (frameEnd - chunkStart >= minChunk) {
+            double energy = getEnergy(frame, length);
+            if (energy < quietestEnergy) {
+                quietestEnergy = energy;
+                quietestPosition = position + length / 2;
+            }
+            if (silenceStart >= 0 && frameEnd - silenceStart >= minSilence) {
+                split((silenceStart + frameEnd) / 2);
+            } else if (frameEnd - chunkStart >= maxChunk) {
+                split(quietestPosition);
+            }
+        }
+        position = frameEnd;
+    }
+
+    /**
+     * Chunks as pairs of first and end sample.
+     */
+    List<long[]> finish() {
+        if (position > chunkStart) {
+            chunks.add(new long[]{chunkStart, position});
+            chunkStart = position;
+        }
+        return chunks;
+    }
+
+    private void split(long at) {
+        chunks.add(new long[]{chunkStart, at});
+        chunkStart = at;
+        silenceStart = -1;
+        quietestEnergy = Double.MAX_VALUE;
+    }
+
+    private static double getEnergy(short[] frame, int length) {
+        long sumSquares = 0;
+        for (int i = 0; i < length; i++) {
+            sumSquares += frame[i] * frame[i];
+        }
+        return length == 0 ? 0 : (double) sumSquares / length;
+    }
+}
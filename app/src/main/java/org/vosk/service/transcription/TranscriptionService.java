@@ -0,0 +1,290 @@
+package org.vosk.service.transcription;
+
+import static org.vosk.service.utils.TranscriptionConstants.AUDIO_MILLIS;
+import static org.vosk.service.utils.TranscriptionConstants.DECODE_MILLIS;
+import static org.vosk.service.utils.TranscriptionConstants.ERROR_AUDIO;
+import static org.vosk.service.utils.TranscriptionConstants.ERROR_MODEL;
+import static org.vosk.service.utils.TranscriptionConstants.ERROR_PERMISSION;
+import static org.vosk.service.utils.TranscriptionConstants.EXTRA_FILE_DESCRIPTOR;
+import static org.vosk.service.utils.TranscriptionConstants.EXTRA_SAMPLE_RATE;
+import static org.vosk.service.utils.TranscriptionConstants.EXTRA_URI;
+import static org.vosk.service.utils.TranscriptionConstants.MSG_CANCEL;
+import static org.vosk.service.utils.TranscriptionConstants.MSG_DONE;
+import static org.vosk.service.utils.TranscriptionConstants.MSG_ERROR;
+import static org.vosk.service.utils.TranscriptionConstants.MSG_SEGMENT;
+import static org.vosk.service.utils.TranscriptionConstants.MSG_TRANSCRIBE;
+import static org.vosk.service.utils.TranscriptionConstants.REAL_TIME_FACTOR;
+
+import android.app.Service;
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import org.vosk.Model;
+import org.vosk.service.download.ModelRegistry;
+import org.vosk.service.recognition.ModelCache;
+import org.vosk.service.recognition.SessionController;
+import org.vosk.service.utils.PreferenceConstants;
+import org.vosk.service.utils.Tools;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.reactivex.Completable;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Bound service transcribing audio files with the active model. The file is read in chunks and
+ * fed to the recognizers as fast as they decode, on all cores when the file can be read at any
+ * position. Each utterance is sent back as a segment with its timestamps and the run ends with
+ * its real-time factor.
+ */
+public class TranscriptionService extends Service {
+    private final static String TAG = TranscriptionService.class.getSimpleName();
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Transcribers of the current model by sample rate, each holding a recognizer per core.
+    private final Map<Integer, ParallelTranscriber> transcribers = new HashMap<>();
+    private final CompositeDisposable compositeDisposable = new CompositeDisposable();
+    // Only touched on the main thread.
+    private final Map<Integer, Disposable> requests = new HashMap<>();
+    private Messenger messenger;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        messenger = new Messenger(new Handler(Looper.getMainLooper(), this::handleMessage));
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return messenger.getBinder();
+    }
+
+    private boolean handleMessage(Message message) {
+        switch (message.what) {
+            case MSG_TRANSCRIBE:
+                transcribe(message.arg1, message.getData(), message.replyTo, message.sendingUid);
+                return true;
+            case MSG_CANCEL:
+                cancel(message.arg1);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void transcribe(int requestId, Bundle data, Messenger client, int clientUid) {
+        Log.v(TAG, "transcribe " + requestId);
+        Job job = new Job(requestId, client);
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
+        String activeModel = sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "");
+        if (client == null || !ModelRegistry.getInstance(this).isInstalled(activeModel)) {
+            job.sendError(ERROR_MODEL);
+            return;
+        }
+        ParcelFileDescriptor fileDescriptor = data.getParcelable(EXTRA_FILE_DESCRIPTOR);
+        Uri uri = data.getParcelable(EXTRA_URI);
+        if (fileDescriptor == null && uri != null && !canRead(uri, clientUid)) {
+            Log.w(TAG, "Client " + clientUid + " may not read " + uri);
+            job.sendError(ERROR_PERMISSION);
+            return;
+        }
+        int rawSampleRate = (int) data.getFloat(EXTRA_SAMPLE_RATE, SessionController.DEFAULT_SAMPLE_RATE);
+
+        Disposable disposable = ModelCache.getInstance().get(Tools.getModelFile(this, activeModel))
+                .flatMapCompletable(model -> Completable.fromAction(() -> decode(model, fileDescriptor, uri, rawSampleRate, job))
+                        .doFinally(() -> ModelCache.getInstance().release(model))
+                        // Mostly waits on the transcriber's own threads and on the file.
+                        .subscribeOn(Schedulers.io()))
+                .doOnDispose(() -> job.cancelled = true)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(() -> finish(requestId), error -> {
+                    Log.e(TAG, "Transcription " + requestId + " failed", error);
+                    job.sendError(error instanceof IOException ? ERROR_AUDIO : ERROR_MODEL);
+                    finish(requestId);
+                });
+        requests.put(requestId, disposable);
+        compositeDisposable.add(disposable);
+    }
+
+    /**
+     * The service opens URIs with its own identity, so it only takes content URIs the client
+     * could read itself. File URIs would give clients access to the app's private files.
+     */
+    private boolean canRead(Uri uri, int clientUid) {
+        return ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())
+                && checkUriPermission(uri, -1, clientUid, Intent.FLAG_GRANT_READ_URI_PERMISSION)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private ParcelFileDescriptor openDescriptor(Uri uri) {
+        try {
+            return getContentResolver().openFileDescriptor(uri, "r");
+        } catch (FileNotFoundException | SecurityException e) {
+            Log.d(TAG, "No descriptor for " + uri + ", reading it as a stream");
+            return null;
+        }
+    }
+
+    private InputStream openAudio(ParcelFileDescriptor fileDescriptor, Uri uri) throws IOException {
+        if (fileDescriptor != null) {
+            return new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor);
+        }
+        if (uri != null) {
+            InputStream input = getContentResolver().openInputStream(uri);
+            if (input != null) {
+                return input;
+            }
+        }
+        throw new FileNotFoundException("No audio given");
+    }
+
+    private void decode(Model model, ParcelFileDescriptor fileDescriptor, Uri uri, int rawSampleRate, Job job) throws IOException {
+        ParcelFileDescriptor descriptor = fileDescriptor != null || uri == null ? fileDescriptor : openDescriptor(uri);
+        try (InputStream input = new BufferedInputStream(openAudio(descriptor, uri), READ_BUFFER_SIZE)) {
+            WavReader reader = new WavReader(input, rawSampleRate);
+            ParallelTranscriber transcriber = getTranscriber(model, reader.getSampleRate());
+            try {
+                ParallelTranscriber.Stats stats;
+                // Pipes and sockets report no size, they can only be read once from start to end.
+                if (descriptor != null && descriptor.getStatSize() >= 0) {
+                    // Positional reads only, the descriptor is closed with the input.
+                    @SuppressWarnings("resource")
+                    FileInputStream file = new FileInputStream(descriptor.getFileDescriptor());
+                    stats = transcriber.transcribe(file.getChannel(), reader.getDataOffset(), reader.getDataLength(),
+                            reader.getChannels(), () -> job.cancelled, job::sendSegment);
+                } else {
+                    stats = transcriber.transcribe(reader, () -> job.cancelled, job::sendSegment);
+                }
+                if (!job.cancelled) {
+                    job.sendDone(stats);
+                }
+            } finally {
+                transcriber.release();
+            }
+        }
+    }
+
+    // The transcriber returned is released by the caller once done.
+    private synchronized ParallelTranscriber getTranscriber(Model model, int sampleRate) throws IOException {
+        ParallelTranscriber transcriber = transcribers.get(sampleRate);
+        if (transcriber == null || !transcriber.matches(model, sampleRate)) {
+            if (transcriber != null) {
+                // The active model changed, the transcribers of the old one are not needed anymore.
+                retireTranscribers();
+            }
+            transcriber = new ParallelTranscriber(model, sampleRate, Runtime.getRuntime().availableProcessors());
+            transcribers.put(sampleRate, transcriber);
+        }
+        transcriber.acquire();
+        return transcriber;
+    }
+
+    // Transcribers in use are closed by the last job releasing them, nothing waits here.
+    private synchronized void retireTranscribers() {
+        for (ParallelTranscriber transcriber : transcribers.values()) {
+            transcriber.retire();
+        }
+        transcribers.clear();
+    }
+
+    private void cancel(int requestId) {
+        Disposable disposable = requests.remove(requestId);
+        if (disposable != null) {
+            compositeDisposable.remove(disposable);
+        }
+    }
+
+    private void finish(int requestId) {
+        Disposable disposable = requests.remove(requestId);
+        if (disposable != null) {
+            compositeDisposable.delete(disposable);
+        }
+    }
+
+    // Idle transcribers hold the model, the cache cannot evict it until they are gone.
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            retireTranscribers();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        compositeDisposable.clear();
+        requests.clear();
+        retireTranscribers();
+    }
+
+    private static class Job {
+        final int requestId;
+        final Messenger client;
+        volatile boolean cancelled;
+
+        Job(int requestId, Messenger client) {
+            this.requestId = requestId;
+            this.client = client;
+        }
+
+        void sendSegment(Segment segment) {
+            send(MSG_SEGMENT, 0, segment.toBundle());
+        }
+
+        void sendDone(ParallelTranscriber.Stats stats) {
+            Bundle bundle = new Bundle();
+            bundle.putLong(AUDIO_MILLIS, stats.audioMillis);
+            bundle.putLong(DECODE_MILLIS, stats.decodeMillis);
+            bundle.putFloat(REAL_TIME_FACTOR, stats.getRealTimeFactor());
+            send(MSG_DONE, 0, bundle);
+        }
+
+        void sendError(int error) {
+            send(MSG_ERROR, error, null);
+        }
+
+        private void send(int what, int arg2, Bundle data) {
+            if (client == null) {
+                return;
+            }
+            Message message = Message.obtain(null, what, requestId, arg2);
+            if (data != null) {
+                message.setData(data);
+            }
+            try {
+                client.send(message);
+            } catch (RemoteException e) {
+                // The client is gone, nobody is waiting for the rest.
+                cancelled = true;
+            }
+        }
+    }
+}
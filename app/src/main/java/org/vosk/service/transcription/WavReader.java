@@ -0,0 +1,205 @@
+package org.vosk.service.transcription;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads 16 bit PCM audio in chunks, either from a WAV stream or from raw samples, so a file of
+ * any length is decoded with a buffer of constant size. Multi channel audio is mixed down to
+ * mono.
+ */
+public class WavReader {
+
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final InputStream input;
+    private final byte[] header = new byte[16];
+    private int sampleRate;
+    private int channels = 1;
+    private long remaining = Long.MAX_VALUE;
+    private long dataOffset;
+    private long dataLength = Long.MAX_VALUE;
+    private long samplesRead;
+    private byte[] bytes = new byte[0];
+    private int pending;
+
+    /**
+     * @param rawSampleRate sample rate of raw PCM, used when the stream has no RIFF header
+     */
+    public WavReader(InputStream input, int rawSampleRate) throws IOException {
+        this.input = input;
+        this.sampleRate = rawSampleRate;
+        readHeader();
+    }
+
+    private WavReader(InputStream input, int sampleRate, int channels) {
+        this.input = input;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    /**
+     * Reader of headerless samples, such as a range of the data chunk of a WAV file.
+     */
+    public static WavReader raw(InputStream input, int sampleRate, int channels) {
+        return new WavReader(input, sampleRate, channels);
+    }
+
+    private void readHeader() throws IOException {
+        pending = readFully(header, 0, 12);
+        if (pending < 12 || !matches(0, "RIFF") || !matches(8, "WAVE")) {
+            // Raw PCM, the bytes read so far are audio.
+            return;
+        }
+        pending = 0;
+        dataOffset = 12;
+        while (true) {
+            readExactly(header, 8);
+            dataOffset += 8;
+            long size = readInt(header, 4) & 0xFFFFFFFFL;
+            if (matches(0, "fmt ")) {
+                if (size < 16) {
+                    throw new IOException("Invalid fmt chunk");
+                }
+                readExactly(header, 16);
+                dataOffset += size + (size & 1);
+                int format = readShort(header, 0);
+                channels = readShort(header, 2);
+                sampleRate = readInt(header, 4);
+                int bits = readShort(header, 14);
+                if ((format != FORMAT_PCM && format != FORMAT_EXTENSIBLE) || bits != 16 || channels < 1) {
+                    throw new IOException("Unsupported WAV format " + format + ", " + bits + " bit");
+                }
+                skip(size - 16 + (size & 1));
+            } else if (matches(0, "data")) {
+                // Streams written on the fly carry 0 or 0xFFFFFFFF, read until the end then.
+                remaining = size == 0 || size == 0xFFFFFFFFL ? Long.MAX_VALUE : size;
+                dataLength = remaining;
+                return;
+            } else {
+                skip(size + (size & 1));
+                dataOffset += size + (size & 1);
+            }
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Position of the first sample in the stream.
+     */
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * Length of the samples in bytes, Long.MAX_VALUE if the header does not tell.
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * Mono samples read so far.
+     */
+    public long getSamplesRead() {
+        return samplesRead;
+    }
+
+    /**
+     * Fills the buffer with mono samples, returns their count or -1 at the end of the audio.
+     */
+    public int read(short[] buffer) throws IOException {
+        if (buffer.length < header.length) {
+            throw new IllegalArgumentException("Buffer too small");
+        }
+        int frameBytes = 2 * channels;
+        int wanted = (int) Math.min((long) buffer.length * frameBytes, remaining);
+        wanted -= wanted % frameBytes;
+        if (wanted <= 0) {
+            return -1;
+        }
+        if (bytes.length < wanted) {
+            bytes = new byte[wanted];
+        }
+        int count = pending;
+        if (pending > 0) {
+            System.arraycopy(header, 0, bytes, 0, pending);
+            pending = 0;
+        }
+        count += readFully(bytes, count, wanted - count);
+        count -= count % frameBytes;
+        if (count == 0) {
+            return -1;
+        }
+        remaining -= count;
+
+        int samples = count / frameBytes;
+        for (int i = 0; i < samples; i++) {
+            int sum = 0;
+            for (int c = 0; c < channels; c++) {
+                int offset = (i * channels + c) * 2;
+                sum += (short) ((bytes[offset] & 0xFF) | (bytes[offset + 1] << 8));
+            }
+            buffer[i] = (short) (sum / channels);
+        }
+        samplesRead += samples;
+        return samples;
+    }
+
+    private boolean matches(int offset, String tag) {
+        for (int i = 0; i < 4; i++) {
+            if (header[offset + i] != tag.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int readFully(byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = input.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private void readExactly(byte[] buffer, int length) throws IOException {
+        if (readFully(buffer, 0, length) < length) {
+            throw new EOFException("Truncated WAV header");
+        }
+    }
+
+    private void skip(long length) throws IOException {
+        while (length > 0) {
+            long skipped = input.skip(length);
+            if (skipped <= 0) {
+                if (input.read() < 0) {
+                    throw new EOFException("Truncated WAV header");
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    private static int readShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return readShort(buffer, offset) | readShort(buffer, offset + 2) << 16;
+    }
+}
@@ -154,7 +154,7 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
                 Log.i(TAG, "onResults");
                 ArrayList<String> results = bundle.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
                 Log.i(TAG, results.get(0));
-                returnResults(results);
+                returnResults(results, bundle.getFloatArray(SpeechRecognizer.CONFIDENCE_SCORES));
             }
 
             @Override
@@ -220,7 +220,7 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
         setupRecognizer();
     }
 
-    private void returnResults(List<String> results) {
+    private void returnResults(List<String> results, float[] confidences) {
         Handler handler = new SimpleMessageHandler(Looper.getMainLooper(), this);
 
         Intent incomingIntent = getIntent();
@@ -233,7 +233,7 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
         PendingIntent pendingIntent = getPendingIntent(extras);
         if (pendingIntent == null) {
             Log.d(TAG, "No pending intent, setting result intent.");
-            setResultIntent(results);
+            setResultIntent(results, confidences);
         } else {
             Log.d(TAG, pendingIntent.toString());
 
@@ -261,9 +261,12 @@ public class SpeechRecognizerActivity extends AppCompatActivity {
         toast("Error loading recognizer");
     }
 
-    private void setResultIntent(List<String> matches) {
+    private void setResultIntent(List<String> matches, float[] confidences) {
         Intent intent = new Intent();
         intent.putStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS, new ArrayList<>(matches));
+        if (confidences != null) {
+            intent.putExtra(RecognizerIntent.EXTRA_CONFIDENCE_SCORES, confidences);
+        }
         setResult(Activity.RESULT_OK, intent);
     }
 
@@ -3,6 +3,8 @@ package org.vosk.service.ui.selector;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.DiffUtil;
 
+import java.util.Objects;
+
 public class DiffCallback extends DiffUtil.ItemCallback<ModelItem> {
 
     @Override
@@ -12,6 +14,8 @@ public class DiffCallback extends DiffUtil.ItemCallback<ModelItem> {
 
     @Override
     public boolean areContentsTheSame(@NonNull ModelItem oldItem, @NonNull ModelItem newItem) {
-        return oldItem.getName().equals(newItem.getName());
+        return Objects.equals(oldItem.getLang_text(), newItem.getLang_text())
+                && Objects.equals(oldItem.getSize_text(), newItem.getSize_text())
+                && Objects.equals(oldItem.getVersion(), newItem.getVersion());
     }
 }
@@ -1,10 +1,8 @@
 package org.vosk.service.ui.selector;
 
-import static org.vosk.service.download.Download.CLEAR;
 import static org.vosk.service.download.Download.COMPLETE;
-import static org.vosk.service.download.Download.RESTARTING;
-import static org.vosk.service.download.Download.STARTING;
-import static org.vosk.service.download.VoskModelStorageClient.ServiceType.DOWNLOAD_MODEL_LIST;
+import static org.vosk.service.download.Download.FAILED;
+import static org.vosk.service.download.DownloadModelService.DOWNLOAD_MODEL_MAX_PROGRESS;
 import static org.vosk.service.utils.Tools.isServiceRunning;
 
 import android.app.Dialog;
@@ -30,6 +28,9 @@ import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import org.vosk.service.download.DownloadModelService;
+import org.vosk.service.download.DownloadJournal;
+import org.vosk.service.download.DownloadQueue;
+import org.vosk.service.download.ModelRegistry;
 import org.vosk.service.R;
 import org.vosk.service.download.VoskModelStorageClient;
 import org.vosk.service.download.VoskModelStorage;
@@ -51,8 +52,8 @@ public class ModelListActivity extends AppCompatActivity {
 
     private final EventBus eventBus = EventBus.getInstance();
     private final CompositeDisposable compositeDisposable = new CompositeDisposable();
-    private final VoskModelStorage service = VoskModelStorageClient.getClient(null, DOWNLOAD_MODEL_LIST);
     private final Gson gson = new Gson();
+    private VoskModelStorage service;
 
     private ModelListAdapter modelListAdapter;
     private SharedPreferences sharedPreferences;
@@ -61,10 +62,8 @@ public class ModelListActivity extends AppCompatActivity {
     private RecyclerView recyclerView;
     private ProgressBar progressBar;
 
-    private List<ModelItem> offlineModelList;
-    public String modelDownloadingName = "";
-    public static int progress = CLEAR;
-    private boolean isOnline;
+    private ModelRegistry modelRegistry;
+    private DownloadQueue downloadQueue;
 
 
     @Override
@@ -74,18 +73,18 @@ public class ModelListActivity extends AppCompatActivity {
 
         //Init fields
         sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
-        modelListAdapter = new ModelListAdapter(sharedPreferences);
+        service = VoskModelStorageClient.getModelListClient(this);
+        downloadQueue = DownloadQueue.getInstance(this);
+        modelRegistry = ModelRegistry.getInstance(this);
+        modelListAdapter = new ModelListAdapter(sharedPreferences, downloadQueue, modelRegistry);
         checkIfIsDownloading();
-        loadOfflineModels();
         initViews();
         observeEvents();
         loadModels();
     }
 
     private void checkIfIsDownloading() {
-        modelDownloadingName = sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "");
-        if (isOnline && !modelDownloadingName.equals("") && !isServiceRunning(this)) {
-            progress = RESTARTING;
+        if (!downloadQueue.isEmpty() && !isServiceRunning(this)) {
             startDownloadModelService();
         }
     }
@@ -100,21 +99,35 @@ public class ModelListActivity extends AppCompatActivity {
             ((SimpleItemAnimator) recyclerView.getItemAnimator()).setSupportsChangeAnimations(false);
     }
 
+    /**
+     * The last known list is shown right away, the network result is diffed in once it arrives.
+     */
     private void loadModels() {
+        List<ModelItem> lastModelList = gson.fromJson(sharedPreferences.getString(PreferenceConstants.MODEL_LIST, "[]"),
+                new TypeToken<List<ModelItem>>() {
+                }.getType());
+        if (!lastModelList.isEmpty()) {
+            showModels(lastModelList);
+        }
         compositeDisposable.add(service.getModelList()
                 .subscribeOn(Schedulers.io())
+                .doOnNext(newDataset -> sharedPreferences.edit().putString(PreferenceConstants.MODEL_LIST, gson.toJson(newDataset)).apply())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(
-                        newDataset -> {
-                            showList();
-                            modelListAdapter.updateDataset(newDataset.stream().filter(it -> it.getType().equals("small") && !it.getObsolete()).collect(Collectors.toList()), offlineModelList.stream().filter(it -> !it.getName().equals(modelDownloadingName)).collect(Collectors.toList()));
-                        },
+                        this::showModels,
                         error -> {
-                            showList();
-                            modelListAdapter.updateDataset(offlineModelList.stream().filter(it -> !it.getName().equals(modelDownloadingName)).collect(Collectors.toList()));
+                            if (lastModelList.isEmpty()) {
+                                showList();
+                                modelListAdapter.updateDataset(modelRegistry.getModels().stream().filter(it -> modelRegistry.isInstalled(it.getName())).collect(Collectors.toList()));
+                            }
                         }));
     }
 
+    private void showModels(List<ModelItem> models) {
+        showList();
+        modelListAdapter.updateDataset(models.stream().filter(it -> "small".equals(it.getType()) && !it.getObsolete()).collect(Collectors.toList()));
+    }
+
     private void showList() {
         progressBar.setVisibility(View.GONE);
         recyclerView.setVisibility(View.VISIBLE);
@@ -127,18 +140,13 @@ public class ModelListActivity extends AppCompatActivity {
                 .subscribe(download -> {
                     if (download.getProgress() == COMPLETE) {
                         Toast.makeText(this, R.string.download_complete, Toast.LENGTH_SHORT).show();
-                        loadOfflineModels();
-                        progress = CLEAR;
-                        sharedPreferences.edit()
-                                .remove(PreferenceConstants.DOWNLOADING_FILE)
-                                .apply();
-                        modelListAdapter.updateOfflineModels(offlineModelList);
-                    } else if (progress != download.getProgress()) {
-                        progress = download.getProgress();
-                        if (modelDownloadingName != null && modelListAdapter.getDataset().stream().anyMatch(it -> it.getName().equals(modelDownloadingName)))
-                            modelListAdapter.getDataset().stream()
-                                    .filter(it -> it.getName().equals(modelDownloadingName)).findFirst()
-                                    .ifPresent(modelItem -> modelListAdapter.notifyItemChanged(modelListAdapter.getDataset().indexOf(modelItem)));
+                        modelListAdapter.clearDownloadProgress(download.getModelName());
+                        modelListAdapter.updateOfflineModels();
+                    } else if (download.getProgress() == FAILED) {
+                        modelListAdapter.clearDownloadProgress(download.getModelName());
+                        modelListAdapter.updateOfflineModels();
+                    } else if (download.getModelName() != null && download.getProgress() <= DOWNLOAD_MODEL_MAX_PROGRESS) {
+                        modelListAdapter.setDownloadProgress(download.getModelName(), download.getProgress());
                     }
                 }));
 
@@ -146,12 +154,11 @@ public class ModelListActivity extends AppCompatActivity {
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(modelItem -> {
-                    progress = STARTING;
-                    //start service
+                    if (downloadQueue.enqueue(modelItem.getName())) {
+                        modelRegistry.add(modelItem);
+                        modelListAdapter.setDownloadProgress(modelItem.getName(), 0);
+                    }
                     startDownloadModelService();
-                    modelDownloadingName = modelItem.getName();
-                    sharedPreferences.edit().putString(PreferenceConstants.DOWNLOADING_FILE, modelItem.getName()).apply();
-                    addOfflineModel(modelItem);
                 }));
 
         compositeDisposable.add(eventBus.getModelSelectedObservable()
@@ -166,10 +173,7 @@ public class ModelListActivity extends AppCompatActivity {
 
         compositeDisposable.add(EventBus.getInstance().getConnectionEvent().subscribe(state -> {
                     if (state == NetworkInfo.State.CONNECTED) {
-                        isOnline = true;
                         checkIfIsDownloading();
-                    } else {
-                        isOnline = false;
                     }
                 })
         );
@@ -192,7 +196,7 @@ public class ModelListActivity extends AppCompatActivity {
     private void showDeleteModelDialog(ModelItem modelItem) {
         DialogInterface.OnClickListener clickListener = (dialog, which) -> {
             deleteOfflineModel(modelItem);
-            modelListAdapter.updateOfflineModels(offlineModelList);
+            modelListAdapter.updateOfflineModels();
             Toast.makeText(this, getString(R.string.model_delete), Toast.LENGTH_LONG).show();
             dialog.dismiss();
 
@@ -200,36 +204,17 @@ public class ModelListActivity extends AppCompatActivity {
         showDialog(R.string.delete_model_dialog_title, R.string.delete_model_dialog_message, clickListener);
     }
 
-    private void loadOfflineModels() {
-        String offlineListJson = sharedPreferences.getString(PreferenceConstants.OFFLINE_LIST, "[]");
-        offlineModelList = gson.fromJson(offlineListJson, new TypeToken<List<ModelItem>>() {
-        }.getType());
-    }
-
-    private void addOfflineModel(ModelItem modelItem) {
-        offlineModelList.add(modelItem);
-        saveOfflineModelList();
-    }
-
     private void deleteOfflineModel(ModelItem modelItem) {
         FileHelper.deleteFileOrDirectory(new File(Tools.getModelFileRootPath(this), modelItem.getName()));
-        offlineModelList.stream()
-                .filter(it -> it.getName().equals(modelItem.getName())).findFirst()
-                .ifPresent(item -> offlineModelList.remove(item));
-        saveOfflineModelList();
-    }
-
-    private void saveOfflineModelList() {
-        Gson gson = new Gson();
-        String offlineModelsJson = gson.toJson(offlineModelList);
-        sharedPreferences.edit().putString(PreferenceConstants.OFFLINE_LIST, offlineModelsJson).apply();
+        FileHelper.deleteFileOrDirectory(DownloadJournal.getFile(Tools.getModelFileRootPath(this), modelItem.getName()));
+        modelRegistry.remove(modelItem.getName());
     }
 
     private void handleError(Error error) {
         switch (error) {
             case CONNECTION: {
                 Toast.makeText(this, getString(R.string.connection_error), Toast.LENGTH_LONG).show();
-                if (!modelDownloadingName.equals("")) {
+                if (!downloadQueue.isEmpty()) {
                     modelListAdapter.notifyDataSetChanged();
                 }
             }
@@ -237,21 +222,23 @@ public class ModelListActivity extends AppCompatActivity {
             case WRITE_STORAGE:
                 Toast.makeText(this, getString(R.string.write_storage_error), Toast.LENGTH_LONG).show();
                 break;
+            case CHECKSUM:
+                Toast.makeText(this, getString(R.string.checksum_error), Toast.LENGTH_LONG).show();
+                break;
         }
     }
 
+    // A running service is started again too, it picks up newly queued models.
     private void startDownloadModelService() {
-        if (!isServiceRunning(this)) {
-            Intent service = new Intent(this, DownloadModelService.class);
-            ContextCompat.startForegroundService(this, service);
-        }
+        Intent service = new Intent(this, DownloadModelService.class);
+        ContextCompat.startForegroundService(this, service);
     }
 
     public void manageModelSelected(ModelItem modelItem) {
         if (isDownloaded(modelItem)) {
             selectDefaultModel(modelItem);
             modelListAdapter.notifyDataSetChanged();
-        } else if (!sharedPreferences.contains(PreferenceConstants.DOWNLOADING_FILE)) {
+        } else if (!downloadQueue.contains(modelItem.getName())) {
             EventBus.getInstance().postDownloadStart(modelItem);
             modelListAdapter.notifyDataSetChanged();
         } else {
@@ -271,9 +258,7 @@ public class ModelListActivity extends AppCompatActivity {
     }
 
     private boolean isDownloaded(ModelItem modelItem) {
-        if (!modelItem.getName().equals(sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "")))
-            return offlineModelList.stream().anyMatch(it -> it.getName().equals(modelItem.getName()));
-        return false;
+        return !downloadQueue.contains(modelItem.getName()) && modelRegistry.isInstalled(modelItem.getName());
     }
 
     private void selectDefaultModel(ModelItem modelItem) {
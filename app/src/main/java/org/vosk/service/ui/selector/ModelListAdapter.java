@@ -1,7 +1,5 @@
 package org.vosk.service.ui.selector;
 
-import static org.vosk.service.ui.selector.ModelListActivity.progress;
-
 import android.content.SharedPreferences;
 import android.content.res.ColorStateList;
 import android.view.LayoutInflater;
@@ -18,21 +16,27 @@ import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import org.vosk.service.R;
+import org.vosk.service.download.DownloadQueue;
 import org.vosk.service.download.EventBus;
+import org.vosk.service.download.ModelRegistry;
 import org.vosk.service.utils.PreferenceConstants;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.ViewHolder> {
 
-    List<ModelItem> dataset = new ArrayList<>();
-    List<ModelItem> offlineModelItems = new ArrayList<>();
     SharedPreferences sharedPreferences;
+    DownloadQueue downloadQueue;
+    ModelRegistry modelRegistry;
+    final Map<String, Integer> downloadProgress = new HashMap<>();
 
-    public ModelListAdapter(SharedPreferences sharedPreferences) {
+    public ModelListAdapter(SharedPreferences sharedPreferences, DownloadQueue downloadQueue, ModelRegistry modelRegistry) {
         super(new DiffCallback());
         this.sharedPreferences = sharedPreferences;
+        this.downloadQueue = downloadQueue;
+        this.modelRegistry = modelRegistry;
     }
 
     @NonNull
@@ -43,39 +47,35 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        holder.bind(dataset.get(position));
+        holder.bind(getItem(position));
     }
 
+    /**
+     * Rows are diffed against the current list, so a list that did not change since it was last
+     * shown does not rebind anything.
+     */
     public void updateDataset(List<ModelItem> newDataset) {
-
-        dataset.clear();
-        dataset.addAll(newDataset);
-
-        this.offlineModelItems.clear();
-        this.offlineModelItems.addAll(newDataset);
-
         submitList(newDataset);
     }
 
-    public void updateDataset(List<ModelItem> newDataset, List<ModelItem> offlineModelItems) {
-
-        dataset.clear();
-        dataset.addAll(newDataset);
-
-        this.offlineModelItems.clear();
-        this.offlineModelItems.addAll(offlineModelItems);
-
-        submitList(newDataset);
+    public void setDownloadProgress(String modelName, int progress) {
+        Integer previous = downloadProgress.put(modelName, progress);
+        if (previous == null || previous != progress) {
+            List<ModelItem> items = getCurrentList();
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i).getName().equals(modelName)) {
+                    notifyItemChanged(i);
+                    break;
+                }
+            }
+        }
     }
 
-    @Override
-    public int getItemCount() {
-        return dataset.size();
+    public void clearDownloadProgress(String modelName) {
+        downloadProgress.remove(modelName);
     }
 
-    public void updateOfflineModels(List<ModelItem> offlineModels) {
-        this.offlineModelItems.clear();
-        this.offlineModelItems.addAll(offlineModels);
+    public void updateOfflineModels() {
         notifyDataSetChanged();
     }
 
@@ -100,7 +100,7 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
         }
 
         public void bind(ModelItem modelItem) {
-            ModelListState modelListState = getModelListState();
+            ModelListState modelListState = getModelListState(modelItem);
 
             modelLangText.setText(modelItem.getLang_text());
             modelSize.setText(itemView.getContext().getString(R.string.model_size, modelItem.getSize_text()));
@@ -131,7 +131,7 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
                     break;
                 case DOWNLOADING:
                     downloadProgressGroup.setVisibility(View.VISIBLE);
-                    setDownloadProgress(progress);
+                    setDownloadProgress(downloadProgress.getOrDefault(modelItem.getName(), 0));
                     modelIndicator.setVisibility(View.GONE);
                     break;
                 case SELECTED:
@@ -161,12 +161,12 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
             modelIndicator.setBackground(AppCompatResources.getDrawable(itemView.getContext(), indicatorIcon));
         }
 
-        public ModelListState getModelListState() {
-            if (getAdapterPosition() != -1 && sharedPreferences.contains(PreferenceConstants.DOWNLOADING_FILE) && sharedPreferences.getString(PreferenceConstants.DOWNLOADING_FILE, "").equals(dataset.get(getAdapterPosition()).getName()))
+        public ModelListState getModelListState(ModelItem modelItem) {
+            if (downloadQueue.contains(modelItem.getName()))
                 return ModelListState.DOWNLOADING;
-            if (sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "").equals(dataset.get(getAdapterPosition()).getName()))
+            if (sharedPreferences.getString(PreferenceConstants.ACTIVE_MODEL, "").equals(modelItem.getName()))
                 return ModelListState.SELECTED;
-            if (offlineModelItems.stream().anyMatch(it -> it.getName().equals(dataset.get(getAdapterPosition()).getName()))) {
+            if (modelRegistry.isInstalled(modelItem.getName())) {
                 return ModelListState.DOWNLOADED;
             }
             return ModelListState.NOT_DOWNLOADED;
@@ -175,7 +175,7 @@ public class ModelListAdapter extends ListAdapter<ModelItem, ModelListAdapter.Vi
 
 
     public List<ModelItem> getDataset() {
-        return dataset;
+        return getCurrentList();
     }
 
     enum ModelListState {
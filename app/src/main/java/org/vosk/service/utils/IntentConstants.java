@@ -0,0 +1,16 @@
+package org.vosk.service.utils;
+
+public class IntentConstants {
+    public static final String EXTRA_SAMPLE_RATE = "org.vosk.service.extra.SAMPLE_RATE";
+    public static final String EXTRA_GRAMMAR = "org.vosk.service.extra.GRAMMAR";
+    public static final String EXTRA_GRAMMAR_PHRASES = "org.vosk.service.extra.GRAMMAR_PHRASES";
+    public static final String EXTRA_PARTIAL_RESULTS_INTERVAL_MILLIS = "org.vosk.service.extra.PARTIAL_RESULTS_INTERVAL_MILLIS";
+    public static final String EXTRA_BUFFER_RECEIVED = "org.vosk.service.extra.BUFFER_RECEIVED";
+    public static final String EXTRA_AUDIO_FRAME_MILLIS = "org.vosk.service.extra.AUDIO_FRAME_MILLIS";
+    public static final String EXTRA_AUDIO_BUFFER_MILLIS = "org.vosk.service.extra.AUDIO_BUFFER_MILLIS";
+    public static final String EXTRA_VAD_ENABLED = "org.vosk.service.extra.VAD_ENABLED";
+    public static final String EXTRA_CONTINUOUS = "org.vosk.service.extra.CONTINUOUS";
+    // RecognizerIntent extras of API 34, compileSdk is 33.
+    public static final String EXTRA_ENABLE_LANGUAGE_DETECTION = "android.speech.extra.ENABLE_LANGUAGE_DETECTION";
+    public static final String EXTRA_LANGUAGE_DETECTION_ALLOWED_LANGUAGES = "android.speech.extra.LANGUAGE_DETECTION_ALLOWED_LANGUAGES";
+}
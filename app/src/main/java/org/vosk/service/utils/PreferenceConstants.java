@@ -1,7 +1,15 @@
 package org.vosk.service.utils;
 
 public class PreferenceConstants {
+    // Single download slot of earlier versions, only read to migrate it into the queue.
     public static final String DOWNLOADING_FILE = "downloading_file";
+    public static final String DOWNLOAD_QUEUE = "download_queue";
+    public static final String DOWNLOAD_CONCURRENCY = "download_concurrency";
     public static final String ACTIVE_MODEL = "active_model";
+    // Downloaded models of earlier versions, only read to migrate them into the model registry.
     public static final String OFFLINE_LIST = "offline_list";
+    public static final String MODEL_LIST = "model_list";
+    public static final String SESSION_POLICY = "session_policy";
+    // Detect the language of clients that do not tell theirs, among the installed models.
+    public static final String LANGUAGE_DETECTION = "language_detection";
 }
@@ -0,0 +1,10 @@
+package org.vosk.service.utils;
+
+public class ResultsConstants {
+    public static final String WORDS = "org.vosk.service.results.WORDS";
+    public static final String WORD_START_TIMES = "org.vosk.service.results.WORD_START_TIMES";
+    public static final String WORD_END_TIMES = "org.vosk.service.results.WORD_END_TIMES";
+    public static final String WORD_CONFIDENCES = "org.vosk.service.results.WORD_CONFIDENCES";
+    // Set on partial results that carry a finished segment of a continuous session.
+    public static final String SEGMENT = "org.vosk.service.results.SEGMENT";
+}
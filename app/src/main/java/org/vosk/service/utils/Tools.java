@@ -14,6 +14,10 @@ public class Tools {
         return new File(context.getFilesDir(), "models");
     }
 
+    public static File getModelFile(@NotNull Context context, @NotNull String modelName) {
+        return new File(getModelFileRootPath(context), modelName + "/" + modelName);
+    }
+
     public static boolean isServiceRunning(Context context) {
         ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
         for (ActivityManager.RunningServiceInfo service : manager.getRunningServices(Integer.MAX_VALUE)) {
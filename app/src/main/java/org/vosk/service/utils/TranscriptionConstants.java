@@ -0,0 +1,37 @@
+package org.vosk.service.utils;
+
+/**
+ * Message protocol of the transcription service. A client binds with {@link #ACTION_TRANSCRIBE}
+ * and sends {@link #MSG_TRANSCRIBE} with a request id in arg1, the audio as
+ * {@link #EXTRA_FILE_DESCRIPTOR} or {@link #EXTRA_URI} in the data and its own messenger as
+ * replyTo. Replies carry the same request id in arg1. Binding takes
+ * {@link #PERMISSION_TRANSCRIBE}, a URI must be a content URI the client can read itself.
+ */
+public class TranscriptionConstants {
+    public static final String ACTION_TRANSCRIBE = "org.vosk.service.action.TRANSCRIBE";
+    public static final String PERMISSION_TRANSCRIBE = "org.vosk.service.permission.TRANSCRIBE";
+
+    public static final int MSG_TRANSCRIBE = 1;
+    public static final int MSG_CANCEL = 2;
+    public static final int MSG_SEGMENT = 3;
+    public static final int MSG_DONE = 4;
+    // The error code is in arg2.
+    public static final int MSG_ERROR = 5;
+
+    public static final int ERROR_MODEL = 1;
+    public static final int ERROR_AUDIO = 2;
+    // The URI is not a content URI or the client may not read it.
+    public static final int ERROR_PERMISSION = 3;
+
+    public static final String EXTRA_URI = "org.vosk.service.extra.URI";
+    public static final String EXTRA_FILE_DESCRIPTOR = "org.vosk.service.extra.FILE_DESCRIPTOR";
+    // Only used for raw PCM, WAV files carry their own.
+    public static final String EXTRA_SAMPLE_RATE = IntentConstants.EXTRA_SAMPLE_RATE;
+
+    public static final String SEGMENT_TEXT = "org.vosk.service.transcription.SEGMENT_TEXT";
+    public static final String SEGMENT_START = "org.vosk.service.transcription.SEGMENT_START";
+    public static final String SEGMENT_END = "org.vosk.service.transcription.SEGMENT_END";
+    public static final String AUDIO_MILLIS = "org.vosk.service.transcription.AUDIO_MILLIS";
+    public static final String DECODE_MILLIS = "org.vosk.service.transcription.DECODE_MILLIS";
+    public static final String REAL_TIME_FACTOR = "org.vosk.service.transcription.REAL_TIME_FACTOR";
+}
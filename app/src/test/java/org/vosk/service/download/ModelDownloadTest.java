@@ -0,0 +1,40 @@
+package org.vosk.service.download;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.zip.ZipException;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+public class ModelDownloadTest {
+
+    private static HttpException httpError(int code) {
+        return new HttpException(Response.error(code, ResponseBody.create(MediaType.get("text/plain"), "")));
+    }
+
+    @Test
+    public void retriesServerErrorsTimeoutsAndRateLimits() {
+        for (int code : new int[]{500, 502, 503, 504, 408, 429}) {
+            assertTrue(String.valueOf(code), ModelDownload.isResumable(httpError(code)));
+        }
+        assertTrue(ModelDownload.isResumable(new SocketTimeoutException()));
+        assertTrue(ModelDownload.isResumable(new IOException("Connection reset")));
+    }
+
+    @Test
+    public void dropsOtherClientErrors() {
+        for (int code : new int[]{400, 401, 403, 404, 410, 416}) {
+            assertFalse(String.valueOf(code), ModelDownload.isResumable(httpError(code)));
+        }
+        assertFalse(ModelDownload.isResumable(new ZipException("Truncated entry")));
+        assertFalse(ModelDownload.isResumable(new RuntimeException()));
+    }
+}
@@ -0,0 +1,312 @@
+package org.vosk.service.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+public class ParallelZipExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    // Compressible, so deflated entries are much smaller than their data.
+    private static byte[] textBytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) ('a' + (i / 7) % 26);
+        }
+        return bytes;
+    }
+
+    private File extract(ZipBuilder builder, AtomicLong progress) throws IOException {
+        File zipFile = folder.newFile("model.zip");
+        Files.write(zipFile.toPath(), builder.build());
+        File destination = new File(folder.getRoot(), "model");
+        new ParallelZipExtractor(zipFile, destination, (bytesRead, contentLength, done) -> {
+            if (progress != null) {
+                progress.set(bytesRead);
+            }
+        }, 4).extract();
+        return destination;
+    }
+
+    @Test
+    public void extractsStoredAndDeflatedEntries() throws IOException {
+        byte[] model = randomBytes(300 * 1024, 1);
+        byte[] config = textBytes(50 * 1024);
+        AtomicLong progress = new AtomicLong();
+
+        File destination = extract(new ZipBuilder()
+                .directory("am/")
+                .stored("am/final.mdl", model)
+                .deflated("conf/model.conf", config)
+                .stored("empty", new byte[0]), progress);
+
+        assertArrayEquals(model, Files.readAllBytes(new File(destination, "am/final.mdl").toPath()));
+        assertArrayEquals(config, Files.readAllBytes(new File(destination, "conf/model.conf").toPath()));
+        assertEquals(0, new File(destination, "empty").length());
+        assertEquals(model.length + config.length, progress.get());
+    }
+
+    @Test
+    public void extractsZip64Entries() throws IOException {
+        byte[] stored = randomBytes(64 * 1024, 2);
+        byte[] deflated = textBytes(64 * 1024);
+
+        File destination = extract(new ZipBuilder()
+                .zip64()
+                .stored("graph/HCLr.fst", stored)
+                .deflated("graph/words.txt", deflated), null);
+
+        assertArrayEquals(stored, Files.readAllBytes(new File(destination, "graph/HCLr.fst").toPath()));
+        assertArrayEquals(deflated, Files.readAllBytes(new File(destination, "graph/words.txt").toPath()));
+    }
+
+    @Test
+    public void rejectsEntriesOutsideOfDestination() throws IOException {
+        // The last one shares the destination's prefix, it must not pass a plain startsWith check.
+        for (String name : Arrays.asList("../evil.txt", "am/../../evil.txt", "../model-evil/evil.txt")) {
+            File root = folder.newFolder();
+            File zipFile = new File(root, "model.zip");
+            Files.write(zipFile.toPath(), new ZipBuilder()
+                    .stored("am/final.mdl", textBytes(10))
+                    .stored(name, textBytes(10))
+                    .build());
+            File destination = new File(root, "model");
+            try {
+                new ParallelZipExtractor(zipFile, destination, null, 2).extract();
+                fail("Extracted " + name);
+            } catch (ZipException e) {
+                // expected
+            }
+            assertFalse(name, new File(root, "evil.txt").exists());
+            assertFalse(name, new File(root, "model-evil").exists());
+        }
+    }
+
+    @Test
+    public void failsOnTruncatedDeflatedEntry() throws IOException {
+        try {
+            extract(new ZipBuilder().truncated("words.txt", textBytes(200 * 1024)), null);
+            fail("Extracted a truncated entry");
+        } catch (ZipStreamExtractor.WriteException e) {
+            throw e;
+        } catch (IOException e) {
+            // A read error, not a write error the download would give up on.
+        }
+    }
+
+    @Test
+    public void failsOnStoredEntryLongerThanItsData() throws IOException {
+        try {
+            extract(new ZipBuilder().overlong("final.mdl", randomBytes(4096, 3)), null);
+            fail("Extracted a truncated entry");
+        } catch (ZipException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("final.mdl"));
+        }
+    }
+
+    @Test
+    public void failsOnTruncatedArchive() throws IOException {
+        byte[] archive = new ZipBuilder().stored("am/final.mdl", randomBytes(8192, 4)).build();
+        File zipFile = folder.newFile("model.zip");
+        Files.write(zipFile.toPath(), Arrays.copyOf(archive, archive.length / 2));
+        try {
+            new ParallelZipExtractor(zipFile, new File(folder.getRoot(), "model"), null, 2).extract();
+            fail("Extracted a truncated archive");
+        } catch (ZipException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Writes archives byte by byte, so entries can carry zip64 fields or sizes that do not match
+     * their data, which ZipOutputStream never produces.
+     */
+    private static class ZipBuilder {
+        private static final long MAX_32 = 0xFFFFFFFFL;
+
+        private final List<Entry> entries = new ArrayList<>();
+        private boolean zip64;
+
+        private static class Entry {
+            String name;
+            int method;
+            byte[] data;
+            long size;
+            long crc;
+            long offset;
+        }
+
+        ZipBuilder zip64() {
+            zip64 = true;
+            return this;
+        }
+
+        ZipBuilder directory(String name) {
+            return add(name, ZipEntry.STORED, new byte[0], 0, new byte[0]);
+        }
+
+        ZipBuilder stored(String name, byte[] data) {
+            return add(name, ZipEntry.STORED, data, data.length, data);
+        }
+
+        ZipBuilder deflated(String name, byte[] data) {
+            return add(name, ZipEntry.DEFLATED, deflate(data), data.length, data);
+        }
+
+        // The compressed stream ends half way, the sizes still describe the whole entry.
+        ZipBuilder truncated(String name, byte[] data) {
+            byte[] compressed = deflate(data);
+            return add(name, ZipEntry.DEFLATED, Arrays.copyOf(compressed, compressed.length / 2), data.length, data);
+        }
+
+        // Declares twice the stored bytes, the entry runs into the central directory.
+        ZipBuilder overlong(String name, byte[] data) {
+            return add(name, ZipEntry.STORED, Arrays.copyOf(data, data.length / 2), data.length, data);
+        }
+
+        private ZipBuilder add(String name, int method, byte[] data, long size, byte[] uncompressed) {
+            Entry entry = new Entry();
+            entry.name = name;
+            entry.method = method;
+            entry.data = data;
+            entry.size = size;
+            CRC32 crc = new CRC32();
+            crc.update(uncompressed);
+            entry.crc = crc.getValue();
+            entries.add(entry);
+            return this;
+        }
+
+        private static byte[] deflate(byte[] data) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            return output.toByteArray();
+        }
+
+        // Stored entries declare their data length, unless made overlong.
+        private static long compressedSize(Entry entry) {
+            return entry.method == ZipEntry.STORED ? Math.max(entry.data.length, entry.size) : entry.data.length;
+        }
+
+        byte[] build() {
+            ByteBuffer out = ByteBuffer.allocate(1024 * 1024 * 4).order(ByteOrder.LITTLE_ENDIAN);
+            for (Entry entry : entries) {
+                entry.offset = out.position();
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                out.putInt(0x04034b50);
+                out.putShort((short) (zip64 ? 45 : 20));
+                out.putShort((short) 0x0800);
+                out.putShort((short) entry.method);
+                out.putShort((short) 0);
+                out.putShort((short) 0x21);
+                out.putInt((int) entry.crc);
+                out.putInt((int) (zip64 ? MAX_32 : compressedSize(entry)));
+                out.putInt((int) (zip64 ? MAX_32 : entry.size));
+                out.putShort((short) name.length);
+                out.putShort((short) (zip64 ? 20 : 0));
+                out.put(name);
+                if (zip64) {
+                    out.putShort((short) 1);
+                    out.putShort((short) 16);
+                    out.putLong(entry.size);
+                    out.putLong(compressedSize(entry));
+                }
+                out.put(entry.data);
+            }
+            long centralOffset = out.position();
+            for (Entry entry : entries) {
+                byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                out.putInt(0x02014b50);
+                out.putShort((short) 45);
+                out.putShort((short) (zip64 ? 45 : 20));
+                out.putShort((short) 0x0800);
+                out.putShort((short) entry.method);
+                out.putShort((short) 0);
+                out.putShort((short) 0x21);
+                out.putInt((int) entry.crc);
+                out.putInt((int) (zip64 ? MAX_32 : compressedSize(entry)));
+                out.putInt((int) (zip64 ? MAX_32 : entry.size));
+                out.putShort((short) name.length);
+                out.putShort((short) (zip64 ? 28 : 0));
+                out.putShort((short) 0);
+                out.putShort((short) 0);
+                out.putShort((short) 0);
+                out.putInt(0);
+                out.putInt((int) (zip64 ? MAX_32 : entry.offset));
+                out.put(name);
+                if (zip64) {
+                    out.putShort((short) 1);
+                    out.putShort((short) 24);
+                    out.putLong(entry.size);
+                    out.putLong(compressedSize(entry));
+                    out.putLong(entry.offset);
+                }
+            }
+            long centralSize = out.position() - centralOffset;
+            if (zip64) {
+                long recordOffset = out.position();
+                out.putInt(0x06064b50);
+                out.putLong(44);
+                out.putShort((short) 45);
+                out.putShort((short) 45);
+                out.putInt(0);
+                out.putInt(0);
+                out.putLong(entries.size());
+                out.putLong(entries.size());
+                out.putLong(centralSize);
+                out.putLong(centralOffset);
+                out.putInt(0x07064b50);
+                out.putInt(0);
+                out.putLong(recordOffset);
+                out.putInt(1);
+            }
+            out.putInt(0x06054b50);
+            out.putShort((short) 0);
+            out.putShort((short) 0);
+            out.putShort((short) (zip64 ? 0xFFFF : entries.size()));
+            out.putShort((short) (zip64 ? 0xFFFF : entries.size()));
+            out.putInt((int) (zip64 ? MAX_32 : centralSize));
+            out.putInt((int) (zip64 ? MAX_32 : centralOffset));
+            out.putShort((short) 0);
+            return Arrays.copyOf(out.array(), out.position());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.vosk.service.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import retrofit2.Retrofit;
+import retrofit2.adapter.rxjava2.RxJava2CallAdapterFactory;
+
+public class SegmentedDownloaderTest {
+
+    private static final String ETAG = "\"archive-v1\"";
+    private static final long SEGMENT_SIZE = 1000;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final MockWebServer server = new MockWebServer();
+    private final byte[] archive = new byte[2500];
+    private final List<Request> requests = Collections.synchronizedList(new ArrayList<>());
+    // Segment start offsets whose next request is cut off half way.
+    private final Set<Long> dropOnce = Collections.synchronizedSet(new HashSet<>());
+    private boolean ignoreRanges;
+
+    private VoskModelStorage service;
+    private File zipFile;
+    private DownloadJournal journal;
+
+    private static class Request {
+        final String range;
+        final String ifRange;
+        final long time;
+
+        Request(String range, String ifRange, long time) {
+            this.range = range;
+            this.ifRange = ifRange;
+            this.time = time;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(1).nextBytes(archive);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return serve(request);
+            }
+        });
+        server.start();
+        service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .addCallAdapterFactory(RxJava2CallAdapterFactory.create())
+                .build()
+                .create(VoskModelStorage.class);
+        zipFile = new File(folder.getRoot(), "model.zip");
+        journal = DownloadJournal.load(folder.getRoot(), "model");
+        journal.restartSegmented(ETAG, null, archive.length, SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private MockResponse serve(RecordedRequest request) {
+        String range = request.getHeader("Range");
+        requests.add(new Request(range, request.getHeader("If-Range"), System.nanoTime()));
+        Matcher matcher = range == null ? null : RANGE.matcher(range);
+        if (ignoreRanges || matcher == null || !matcher.matches()) {
+            return new MockResponse().setBody(new Buffer().write(archive));
+        }
+        int start = Integer.parseInt(matcher.group(1));
+        int end = Integer.parseInt(matcher.group(2)) + 1;
+        MockResponse response = new MockResponse()
+                .setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + archive.length)
+                .setBody(new Buffer().write(archive, start, end - start));
+        if (dropOnce.remove((long) start)) {
+            response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+        }
+        return response;
+    }
+
+    private SegmentedDownloader downloader() {
+        return new SegmentedDownloader(service, "model.zip", zipFile, journal, (bytesRead, contentLength, done) -> {
+        }, 2);
+    }
+
+    private List<String> getRanges() {
+        List<String> ranges = new ArrayList<>();
+        synchronized (requests) {
+            for (Request request : requests) {
+                ranges.add(request.range);
+            }
+        }
+        Collections.sort(ranges);
+        return ranges;
+    }
+
+    @Test
+    public void splitsArchiveIntoRanges() throws IOException {
+        assertNull(downloader().download().blockingGet());
+
+        List<String> expected = new ArrayList<>();
+        expected.add("bytes=0-999");
+        expected.add("bytes=1000-1999");
+        expected.add("bytes=2000-2499");
+        assertEquals(expected, getRanges());
+        for (Request request : requests) {
+            assertEquals(ETAG, request.ifRange);
+        }
+        assertArrayEquals(archive, Files.readAllBytes(zipFile.toPath()));
+        for (int i = 0; i < journal.getSegmentCount(); i++) {
+            assertTrue(journal.isSegmentComplete(i));
+        }
+    }
+
+    @Test
+    public void fullResponseInsteadOfRangeFails() {
+        // A 200 means If-Range did not match, the archive changed since the journal was written.
+        ignoreRanges = true;
+
+        Throwable error = downloader().download().blockingGet();
+
+        assertTrue(String.valueOf(error), error instanceof SegmentedDownloader.RangeException);
+        // Not retried, another attempt would get the new archive again.
+        List<String> ranges = getRanges();
+        assertEquals(new HashSet<>(ranges).size(), ranges.size());
+        for (int i = 0; i < journal.getSegmentCount(); i++) {
+            assertFalse(journal.isSegmentComplete(i));
+        }
+    }
+
+    @Test
+    public void droppedSegmentIsRetriedAfterBackoff() throws IOException {
+        dropOnce.add(SEGMENT_SIZE);
+
+        assertNull(downloader().download().blockingGet());
+
+        List<Request> retried = new ArrayList<>();
+        synchronized (requests) {
+            for (Request request : requests) {
+                if ("bytes=1000-1999".equals(request.range)) {
+                    retried.add(request);
+                }
+            }
+        }
+        assertEquals(2, retried.size());
+        long delayMillis = (retried.get(1).time - retried.get(0).time) / 1000000;
+        assertTrue("Retried after " + delayMillis + " ms", delayMillis >= 900);
+        assertArrayEquals(archive, Files.readAllBytes(zipFile.toPath()));
+    }
+
+    @Test
+    public void resumesMissingSegmentsFromJournal() throws IOException {
+        // An earlier attempt wrote the first and last segments.
+        try (RandomAccessFile file = new RandomAccessFile(zipFile, "rw")) {
+            file.setLength(archive.length);
+            file.write(archive, 0, (int) SEGMENT_SIZE);
+            file.seek(2 * SEGMENT_SIZE);
+            file.write(archive, (int) (2 * SEGMENT_SIZE), archive.length - (int) (2 * SEGMENT_SIZE));
+        }
+        journal.completeSegment(0);
+        journal.completeSegment(2);
+        // As after a restart of the process.
+        journal = DownloadJournal.load(folder.getRoot(), "model");
+
+        assertNull(downloader().download().blockingGet());
+
+        assertEquals(Collections.singletonList("bytes=1000-1999"), getRanges());
+        assertArrayEquals(archive, Files.readAllBytes(zipFile.toPath()));
+    }
+}
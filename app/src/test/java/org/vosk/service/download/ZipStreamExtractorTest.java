@@ -0,0 +1,82 @@
+package org.vosk.service.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ZipStreamExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] model = randomBytes(100 * 1024);
+    private final byte[] words = "one\ntwo\nthree\n".getBytes();
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(1).nextBytes(bytes);
+        return bytes;
+    }
+
+    private byte[] createArchive() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(output)) {
+            zip.putNextEntry(new ZipEntry("graph/words.txt"));
+            zip.write(words);
+            zip.putNextEntry(new ZipEntry("am/final.mdl"));
+            zip.write(model);
+        }
+        return output.toByteArray();
+    }
+
+    private void extract(byte[] archive, File destination, long offset, List<Long> boundaries) throws IOException {
+        FileHelper.extractStream(new ByteArrayInputStream(archive, (int) offset, archive.length), destination, offset,
+                (name, nextEntryOffset) -> boundaries.add(nextEntryOffset));
+    }
+
+    @Test
+    public void extractsEntriesWithTheirBoundaries() throws IOException {
+        File destination = folder.newFolder("model");
+        List<Long> boundaries = new ArrayList<>();
+        extract(createArchive(), destination, 0, boundaries);
+
+        assertArrayEquals(words, Files.readAllBytes(new File(destination, "graph/words.txt").toPath()));
+        assertArrayEquals(model, Files.readAllBytes(new File(destination, "am/final.mdl").toPath()));
+        assertEquals(2, boundaries.size());
+    }
+
+    @Test
+    public void earlyEndOfStreamIsResumable() throws IOException {
+        byte[] archive = createArchive();
+        File destination = folder.newFolder("model");
+        List<Long> boundaries = new ArrayList<>();
+        try {
+            extract(Arrays.copyOf(archive, archive.length / 2), destination, 0, boundaries);
+            fail("Extracted a truncated stream");
+        } catch (EOFException e) {
+            assertTrue(ModelDownload.isResumable(e));
+        }
+        // The first entry is complete, the rest of the archive resumes from its end.
+        assertEquals(1, boundaries.size());
+        extract(archive, destination, boundaries.get(0), boundaries);
+        assertArrayEquals(model, Files.readAllBytes(new File(destination, "am/final.mdl").toPath()));
+    }
+}
@@ -0,0 +1,85 @@
+package org.vosk.service.recognition;
+
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Compares the parser with the Gson decoding it replaced, on the hypotheses the recognizer sends
+ * most. Only runs when asked for: ./gradlew :app:testDebugUnitTest -Pbenchmark --tests '*Benchmark'
+ */
+public class HypothesisParserBenchmark {
+
+    private static final String PARTIAL = "{\n  \"partial\" : \"what is the weather like in\"\n}";
+    private static final String RESULT = "{\n  \"result\" : [{\n      \"conf\" : 1.000000,\n      \"end\" : 0.51,\n"
+            + "      \"start\" : 0.21,\n      \"word\" : \"what\"\n    }, {\n      \"conf\" : 0.981243,\n"
+            + "      \"end\" : 0.66,\n      \"start\" : 0.51,\n      \"word\" : \"is\"\n    }, {\n"
+            + "      \"conf\" : 1.000000,\n      \"end\" : 0.78,\n      \"start\" : 0.66,\n      \"word\" : \"the\"\n"
+            + "    }, {\n      \"conf\" : 0.874611,\n      \"end\" : 1.17,\n      \"start\" : 0.78,\n"
+            + "      \"word\" : \"weather\"\n    }],\n  \"text\" : \"what is the weather\"\n}";
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int ITERATIONS = 500_000;
+    private static final int RUNS = 5;
+
+    private final Type mapType = new TypeToken<Map<String, String>>() {
+    }.getType();
+    private final Gson sharedGson = new Gson();
+    private final HypothesisParser parser = new HypothesisParser();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Run with -Pbenchmark", Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void partialResult() {
+        // What the service did before, a new Gson for every callback.
+        measure("partial, Gson per call", PARTIAL, json -> {
+            Map<String, String> map = new Gson().fromJson(json, mapType);
+            return map.get("partial").length();
+        });
+        measure("partial, shared Gson", PARTIAL, json -> {
+            Map<String, String> map = sharedGson.fromJson(json, mapType);
+            return map.get("partial").length();
+        });
+        measure("partial, HypothesisParser", PARTIAL, json -> parser.parse(json) ? parser.getTextLength() : 0);
+    }
+
+    @Test
+    public void resultWithWords() {
+        measure("result, JsonParser", RESULT, json -> {
+            JsonObject object = JsonParser.parseString(json).getAsJsonObject();
+            return object.get("text").getAsString().length() + object.getAsJsonArray("result").size();
+        });
+        measure("result, HypothesisParser", RESULT, json -> parser.parse(json) ? parser.getTextLength() + parser.getWordCount() : 0);
+    }
+
+    private static void measure(String name, String json, ToIntFunction<String> decoder) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += decoder.applyAsInt(json);
+        }
+        double best = Double.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                sink += decoder.applyAsInt(json);
+            }
+            best = Math.min(best, (double) (System.nanoTime() - start) / ITERATIONS);
+        }
+        assertTrue(sink > 0);
+        System.out.printf("%-28s %8.1f ns/op%n", name, best);
+    }
+}
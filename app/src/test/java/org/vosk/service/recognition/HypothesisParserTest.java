@@ -0,0 +1,144 @@
+package org.vosk.service.recognition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HypothesisParserTest {
+
+    private static final float DELTA = 1e-6f;
+
+    private final HypothesisParser parser = new HypothesisParser();
+
+    @Test
+    public void parsesPartialResult() {
+        assertTrue(parser.parse("{\n  \"partial\" : \"hello wor\"\n}"));
+        assertTrue(parser.isPartial());
+        assertEquals("hello wor", parser.getText());
+        assertTrue(parser.textEquals("hello wor"));
+        assertEquals(0, parser.getWordCount());
+    }
+
+    @Test
+    public void parsesResultWithWords() {
+        assertTrue(parser.parse("{\"result\" : [{\"conf\" : 0.5, \"end\" : 1.02, \"start\" : 0.6, \"word\" : \"hello\"},"
+                + " {\"conf\" : 1.0, \"end\" : 1.5, \"start\" : 1.02, \"word\" : \"world\"}], \"text\" : \"hello world\"}"));
+        assertFalse(parser.isPartial());
+        assertEquals("hello world", parser.getText());
+        assertEquals(2, parser.getWordCount());
+        assertEquals("hello", parser.getWord(0));
+        assertEquals("world", parser.getWord(1));
+        assertEquals(0.6f, parser.getWordStart(0), DELTA);
+        assertEquals(1.5f, parser.getWordEnd(1), DELTA);
+        assertTrue(parser.hasWordConfidences());
+        assertEquals(0.5f, parser.getWordConfidence(0), DELTA);
+        assertEquals(1, parser.getAlternativeCount());
+        assertEquals("hello world", parser.getAlternative(0));
+        assertEquals(0.75f, parser.getAlternativeConfidence(0), DELTA);
+    }
+
+    @Test
+    public void decodesEscapes() {
+        assertTrue(parser.parse("{\"te\\u0078t\" : \"a \\\"quoted\\\" \\\\ caf\\u00e9\\n\\t\","
+                + " \"result\" : [{\"word\" : \"caf\\u00e9\", \"conf\" : 1}]}"));
+        assertEquals("a \"quoted\" \\ caf\u00e9\n\t", parser.getText());
+        assertEquals("caf\u00e9", parser.getWord(0));
+    }
+
+    @Test
+    public void parsesNestedAlternatives() {
+        assertTrue(parser.parse("{\"alternatives\" : [{\"confidence\" : 230.5, \"result\" : [{\"end\" : 0.9, \"start\" : 0.3, \"word\" : \"one\"},"
+                + " {\"end\" : 1.4, \"start\" : 0.9, \"word\" : \"two\"}], \"text\" : \"one two\"},"
+                + " {\"confidence\" : 229.5, \"result\" : [{\"end\" : 1.4, \"start\" : 0.3, \"word\" : \"won\"}], \"text\" : \"won\"},"
+                + " {\"confidence\" : 1.2e2, \"extra\" : {\"nested\" : [[1, 2], {\"a\" : \"]}\"}]}, \"text\" : \"\"}]}"));
+        assertEquals(3, parser.getAlternativeCount());
+        assertEquals("one two", parser.getText());
+        assertEquals("one two", parser.getAlternative(0));
+        assertEquals("won", parser.getAlternative(1));
+        assertEquals("", parser.getAlternative(2));
+        // The words are those of the best alternative.
+        assertEquals(2, parser.getWordCount());
+        assertEquals("two", parser.getWord(1));
+        assertEquals(0.9f, parser.getWordStart(1), DELTA);
+
+        float total = 0;
+        for (int i = 0; i < parser.getAlternativeCount(); i++) {
+            total += parser.getAlternativeConfidence(i);
+        }
+        assertEquals(1f, total, 1e-5f);
+        assertTrue(parser.getAlternativeConfidence(0) > parser.getAlternativeConfidence(1));
+        assertEquals(1 / (1 + Math.exp(-1)), parser.getAlternativeConfidence(0), 1e-5);
+    }
+
+    @Test
+    public void missingConfidenceIsNotReported() {
+        assertTrue(parser.parse("{\"alternatives\" : [{\"confidence\" : 10, \"result\" : [{\"end\" : 0.9, \"start\" : 0.3, \"word\" : \"one\"}],"
+                + " \"text\" : \"one\"}]}"));
+        assertFalse(parser.hasWordConfidences());
+        assertTrue(Float.isNaN(parser.getWordConfidence(0)));
+
+        assertTrue(parser.parse("{\"result\" : [{\"word\" : \"a\", \"conf\" : 0.4}, {\"word\" : \"b\"}], \"text\" : \"a b\"}"));
+        assertFalse(parser.hasWordConfidences());
+        // Only the reported confidence counts.
+        assertEquals(0.4f, parser.getAlternativeConfidence(0), DELTA);
+    }
+
+    @Test
+    public void readsNumberFormats() {
+        assertTrue(parser.parse("{\"result\" : [{\"start\" : -1.5e-1, \"end\" : 2E+1, \"conf\" : 0, \"word\" : \"x\"}], \"text\" : \"x\"}"));
+        assertEquals(-0.15f, parser.getWordStart(0), DELTA);
+        assertEquals(20f, parser.getWordEnd(0), DELTA);
+        assertEquals(0f, parser.getWordConfidence(0), DELTA);
+    }
+
+    @Test
+    public void skipsUnknownFields() {
+        assertTrue(parser.parse("{\"spk\" : [0.1, -2e3], \"flag\" : true, \"none\" : null, \"obj\" : {\"text\" : \"inner\"},"
+                + " \"text\" : \"outer\", \"tail\" : \"}\"}"));
+        assertEquals("outer", parser.getText());
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        String[] inputs = {
+                "",
+                "   ",
+                "text",
+                "[\"text\"]",
+                "{\"text\" : \"unterminated",
+                "{\"text\" \"missing colon\"}",
+                "{\"text\" : \"a\",",
+                "{\"result\" : [{\"word\" : \"a\"}",
+                "{\"partial\" : \"a\\u00\"}",
+                "{}",
+                "{\"result\" : []}",
+        };
+        for (String input : inputs) {
+            assertFalse(input, parser.parse(input));
+        }
+    }
+
+    @Test
+    public void reusesBuffersBetweenCalls() {
+        StringBuilder json = new StringBuilder("{\"result\" : [");
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String word = "word" + i;
+            json.append(i > 0 ? ", " : "").append("{\"conf\" : 1, \"word\" : \"").append(word).append("\"}");
+            text.append(i > 0 ? " " : "").append(word);
+        }
+        json.append("], \"text\" : \"").append(text).append("\"}");
+        assertTrue(parser.parse(json.toString()));
+        assertEquals(100, parser.getWordCount());
+        assertEquals("word99", parser.getWord(99));
+        assertEquals(text.toString(), parser.getText());
+
+        assertFalse(parser.parse("{\"text\" : \"broken"));
+        assertTrue(parser.parse("{\"text\" : \"short\"}"));
+        assertEquals("short", parser.getText());
+        assertEquals(0, parser.getWordCount());
+        assertEquals(1, parser.getAlternativeCount());
+    }
+}